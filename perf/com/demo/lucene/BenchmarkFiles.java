@@ -0,0 +1,44 @@
+package com.demo.lucene;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Temporary directories for the corpora and indexes of the benchmarks.
+ */
+final class BenchmarkFiles {
+
+    // -------------------- Constructors --------------------
+
+    private BenchmarkFiles() {
+    }
+
+    // -------------------- Default Static Methods --------------------
+
+    static Path createTempDirectory(String prefix) throws IOException {
+        return Files.createTempDirectory("lucene-demo-" + prefix);
+    }
+
+    static void deleteRecursively(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,142 @@
+package com.demo.lucene;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Indexing throughput: a full indexing of a generated books directory at different thread counts and RAM
+ * buffer sizes, and single uploads through {@link BookIndexer#addToIndex}. Every full indexing starts from
+ * an empty index.
+ */
+@Fork(1)
+public class IndexBenchmark {
+
+    // -------------------- Public Methods --------------------
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public void fullIndexing(FullIndexingState state) throws IOException {
+        try (BookIndexer indexer = new BookIndexer(state.rawDataPath, state.indexPath, state.settings)) {
+            indexer.performFullIndexing();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public void upload(UploadState state) throws IOException {
+        state.indexer.addToIndex(new ByteArrayInputStream(state.nextBook()));
+    }
+
+    // -------------------- Inner Classes --------------------
+
+    @State(Scope.Benchmark)
+    public static class FullIndexingState {
+
+        @Param({"500"})
+        public int bookCount;
+
+        @Param({"5000"})
+        public int wordsPerBook;
+
+        @Param({"1", "2", "4"})
+        public int indexThreads;
+
+        @Param({"16", "64", "256"})
+        public double ramBufferSizeMB;
+
+        private Path rawDataPath;
+        private Path indexPath;
+        private IndexSettings settings;
+
+        @Setup(Level.Trial)
+        public void createCorpus() throws IOException {
+            rawDataPath = BenchmarkFiles.createTempDirectory("books");
+            new SyntheticCorpus(42L, bookCount, wordsPerBook).writeTo(rawDataPath);
+            settings = new IndexSettings()
+                    .setIndexThreads(indexThreads)
+                    .setRamBufferSizeMB(ramBufferSizeMB)
+                    .setProgressIntervalMillis(TimeUnit.HOURS.toMillis(1));
+        }
+
+        @Setup(Level.Iteration)
+        public void createIndexDirectory() throws IOException {
+            indexPath = BenchmarkFiles.createTempDirectory("index");
+        }
+
+        @TearDown(Level.Iteration)
+        public void deleteIndex() throws IOException {
+            BenchmarkFiles.deleteRecursively(indexPath);
+        }
+
+        @TearDown(Level.Trial)
+        public void deleteCorpus() throws IOException {
+            BenchmarkFiles.deleteRecursively(rawDataPath);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class UploadState {
+
+        private static final int DISTINCT_BOOKS = 100;
+
+        @Param({"5000"})
+        public int wordsPerBook;
+
+        @Param({"64"})
+        public double ramBufferSizeMB;
+
+        private byte[][] books;
+        private int next = 0;
+        private Path rawDataPath;
+        private Path indexPath;
+        private BookIndexer indexer;
+
+        @Setup(Level.Trial)
+        public void openIndexer() throws IOException {
+            SyntheticCorpus corpus = new SyntheticCorpus(42L, DISTINCT_BOOKS, wordsPerBook);
+            books = new byte[DISTINCT_BOOKS][];
+            for (int i = 0; i < DISTINCT_BOOKS; i++) {
+                books[i] = corpus.book(i).getBytes(StandardCharsets.UTF_8);
+            }
+            rawDataPath = BenchmarkFiles.createTempDirectory("books");
+            indexPath = BenchmarkFiles.createTempDirectory("index");
+            indexer = new BookIndexer(rawDataPath, indexPath,
+                    new IndexSettings().setRamBufferSizeMB(ramBufferSizeMB));
+        }
+
+        @TearDown(Level.Trial)
+        public void closeIndexer() throws IOException {
+            indexer.close();
+            BenchmarkFiles.deleteRecursively(indexPath);
+            BenchmarkFiles.deleteRecursively(rawDataPath);
+        }
+
+        private synchronized byte[] nextBook() {
+            next = (next + 1) % books.length;
+            return books[next];
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.demo.lucene;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link BookParser}: parsing only the header, as the indexer does when it streams the body,
+ * and parsing the header and reading the whole body, as it does when the contents are stored.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+    // -------------------- Parameters --------------------
+
+    @Param({"1000", "100000"})
+    public int wordsPerBook;
+
+    // -------------------- Private Variables --------------------
+
+    private String text;
+
+    // -------------------- Public Methods --------------------
+
+    @Setup
+    public void setUp() {
+        text = new SyntheticCorpus(42L, 1, wordsPerBook).book(0);
+    }
+
+    @Benchmark
+    public Book parseHeader() throws IOException {
+        return BookParser.parse(new StringReader(text));
+    }
+
+    @Benchmark
+    public String parseAndReadBody() throws IOException {
+        return BookParser.readFully(BookParser.parse(new StringReader(text)).getContent());
+    }
+}
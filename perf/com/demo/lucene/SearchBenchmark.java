@@ -0,0 +1,141 @@
+package com.demo.lucene;
+
+import com.demo.web.SearchPage;
+import org.apache.lucene.search.highlight.InvalidTokenOffsetsException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of {@link BookSearcher#search} against a generated index, with the result cache disabled so
+ * every search runs the query. Phrase queries are taken from the text of the books, so they always match;
+ * prefix queries (the only kind of wildcard the query builder allows) expand common word starts. Searching
+ * with the {@code context} field measures highlighting, leaving it out measures the query alone. With
+ * several shards each search fans out over the shards in parallel, and with segment search threads over
+ * the segments of each shard.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+
+    // -------------------- Private Statics --------------------
+
+    private static final int QUERY_COUNT = 256;
+    private static final int PAGE_SIZE = 50;
+
+    // -------------------- Parameters --------------------
+
+    @Param({"1000"})
+    public int bookCount;
+
+    @Param({"5000"})
+    public int wordsPerBook;
+
+    @Param({"PHRASE", "ALL_TERMS", "PREFIX"})
+    public SearchMode mode;
+
+    @Param({"author,title", "author,title,context"})
+    public String fields;
+
+    @Param({"FS", "MMAP", "NIOFS"})
+    public DirectoryType directory;
+
+    @Param({"1", "4"})
+    public int shards;
+
+    @Param({"0", "4"})
+    public int segmentSearchThreads;
+
+    // -------------------- Private Variables --------------------
+
+    private Path rawDataPath;
+    private Path indexPath;
+    private BookIndexer indexer;
+    private BookSearcher searcher;
+    private Set<ResultField> resultFields;
+    private String[] queries;
+    private int next = 0;
+
+    // -------------------- Public Methods --------------------
+
+    @Setup(Level.Trial)
+    public void createIndex() throws IOException {
+        SyntheticCorpus corpus = new SyntheticCorpus(42L, bookCount, wordsPerBook);
+        rawDataPath = BenchmarkFiles.createTempDirectory("books");
+        indexPath = BenchmarkFiles.createTempDirectory("index");
+        corpus.writeTo(rawDataPath);
+
+        IndexSettings settings = new IndexSettings()
+                .setQueryCacheMaxEntries(0)
+                .setDirectoryType(directory)
+                .setShardCount(shards)
+                .setSegmentSearchThreads(segmentSearchThreads)
+                .setProgressIntervalMillis(TimeUnit.HOURS.toMillis(1));
+        indexer = new BookIndexer(rawDataPath, indexPath, settings);
+        indexer.performFullIndexing();
+        searcher = new BookSearcher(indexer, settings);
+        resultFields = ResultField.parse(fields);
+        queries = createQueries(corpus);
+    }
+
+    @TearDown(Level.Trial)
+    public void closeIndex() throws IOException {
+        searcher.close();
+        indexer.close();
+        BenchmarkFiles.deleteRecursively(indexPath);
+        BenchmarkFiles.deleteRecursively(rawDataPath);
+    }
+
+    @Benchmark
+    public SearchPage search() throws IOException, InvalidTokenOffsetsException {
+        return searcher.search(nextQuery(), mode, PAGE_SIZE, null, resultFields);
+    }
+
+    // -------------------- Private Methods --------------------
+
+    private synchronized String nextQuery() {
+        next = (next + 1) % queries.length;
+        return queries[next];
+    }
+
+    private String[] createQueries(SyntheticCorpus corpus) {
+        Random random = new Random(7L);
+        List<String> created = new ArrayList<>(QUERY_COUNT);
+        while (created.size() < QUERY_COUNT) {
+            List<String> words = corpus.words(random.nextInt(corpus.getBookCount()));
+            int start = random.nextInt(words.size() - 3);
+            switch (mode) {
+                case PREFIX:
+                    String word = words.get(start + 1);
+                    created.add(words.get(start) + " " + word.substring(0, Math.min(word.length(), 3)));
+                    break;
+                default:
+                    created.add(words.get(start) + " " + words.get(start + 1) + " " + words.get(start + 2));
+                    break;
+            }
+        }
+        return created.toArray(new String[created.size()]);
+    }
+}
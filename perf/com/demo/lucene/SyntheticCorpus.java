@@ -0,0 +1,166 @@
+package com.demo.lucene;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Generates books in the format of the books directory from a fixed seed, so every run of a benchmark
+ * indexes and searches exactly the same text. Words are drawn from a generated vocabulary with a Zipf-like
+ * distribution, which gives the index a realistic mix of very common and rare terms.
+ *
+ * Run it on its own to write a corpus to disk: {@code SyntheticCorpus <directory> [books] [wordsPerBook] [seed]}.
+ */
+public final class SyntheticCorpus {
+
+    // -------------------- Private Statics --------------------
+
+    private static final String[] SYLLABLES = {
+            "ka", "lo", "mi", "ra", "ten", "vi", "sor", "dun", "el", "pha", "qua", "bri", "stor", "gal", "um",
+            "ne", "tho", "wy", "zer", "ark", "ock", "ilt", "mer", "fa", "jon", "ri", "sel", "ash", "cu", "dro"
+    };
+    private static final int VOCABULARY_SIZE = 20000;
+    private static final int WORDS_PER_LINE = 12;
+    private static final double ZIPF_EXPONENT = 1.1d;
+
+    // -------------------- Private Variables --------------------
+
+    private final long seed;
+    private final int bookCount;
+    private final int wordsPerBook;
+    private final String[] vocabulary;
+    private final double[] cumulativeWeights;
+
+    // -------------------- Constructors --------------------
+
+    public SyntheticCorpus(long seed, int bookCount, int wordsPerBook) {
+        this.seed = seed;
+        this.bookCount = bookCount;
+        this.wordsPerBook = wordsPerBook;
+        this.vocabulary = createVocabulary(new Random(seed));
+        this.cumulativeWeights = createCumulativeWeights(vocabulary.length);
+    }
+
+    // -------------------- Public Static Methods --------------------
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: SyntheticCorpus <directory> [books] [wordsPerBook] [seed]");
+            System.exit(1);
+        }
+        int books = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int words = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42L;
+        new SyntheticCorpus(seed, books, words).writeTo(Paths.get(args[0]));
+    }
+
+    // -------------------- Public Methods --------------------
+
+    public final int getBookCount() {
+        return bookCount;
+    }
+
+    /**
+     * The text of the book with the given index, including its header.
+     */
+    public final String book(int index) {
+        List<String> words = words(index);
+        StringBuilder text = new StringBuilder(wordsPerBook * 8);
+        text.append("Title: ").append(title(index)).append('\n');
+        text.append("Author: ").append(author(index)).append('\n');
+        text.append('\n').append("*** START OF THIS BOOK ***").append('\n');
+        for (int i = 0; i < words.size(); i++) {
+            text.append(words.get(i)).append((i + 1) % WORDS_PER_LINE == 0 ? '\n' : ' ');
+        }
+        return text.append('\n').toString();
+    }
+
+    /**
+     * The words of the body of the book with the given index, in order.
+     */
+    public final List<String> words(int index) {
+        Random random = new Random(seed * 31 + index);
+        List<String> words = new ArrayList<>(wordsPerBook);
+        for (int i = 0; i < wordsPerBook; i++) {
+            words.add(vocabulary[sample(random)]);
+        }
+        return words;
+    }
+
+    /**
+     * The word with the given frequency rank, where rank 0 is the most frequent word of the corpus.
+     */
+    public final String word(int rank) {
+        return vocabulary[rank];
+    }
+
+    public final String title(int index) {
+        return "Synthetic book " + index;
+    }
+
+    public final String author(int index) {
+        return "Author " + (index % 97);
+    }
+
+    /**
+     * Writes every book to {@code book-<index>.txt} in the given directory, creating it if needed.
+     */
+    public final void writeTo(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        for (int i = 0; i < bookCount; i++) {
+            try (Writer writer = Files.newBufferedWriter(directory.resolve("book-" + i + ".txt"), StandardCharsets.UTF_8)) {
+                writer.write(book(i));
+            }
+        }
+    }
+
+    // -------------------- Private Methods --------------------
+
+    private int sample(Random random) {
+        double target = random.nextDouble() * cumulativeWeights[cumulativeWeights.length - 1];
+        int low = 0;
+        int high = cumulativeWeights.length - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (cumulativeWeights[middle] < target) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // -------------------- Private Static Methods --------------------
+
+    private static String[] createVocabulary(Random random) {
+        Set<String> words = new LinkedHashSet<>();
+        while (words.size() < VOCABULARY_SIZE) {
+            int syllables = 1 + random.nextInt(4);
+            StringBuilder word = new StringBuilder();
+            for (int i = 0; i < syllables; i++) {
+                word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+            words.add(word.toString());
+        }
+        return words.toArray(new String[words.size()]);
+    }
+
+    private static double[] createCumulativeWeights(int size) {
+        double[] weights = new double[size];
+        double total = 0d;
+        for (int rank = 0; rank < size; rank++) {
+            total += 1d / Math.pow(rank + 1, ZIPF_EXPONENT);
+            weights[rank] = total;
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,329 @@
+package com.demo.web;
+
+import com.demo.lucene.SyntheticCorpus;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Replays a mix of searches, stats requests and uploads against a running {@link BookSearchServer} at fixed
+ * rates and reports throughput and latency percentiles per route.
+ *
+ * Requests are sent open-loop: each one has an intended start time on a fixed schedule, and its response
+ * time is measured from that intended start rather than from when a worker got around to sending it. A
+ * server that stalls therefore shows up in the percentiles with the full time requests spent waiting,
+ * instead of the stall hiding behind a lower request rate (coordinated omission). The time from actually
+ * sending to the response is reported alongside as the service time.
+ *
+ * Arguments are {@code key=value} pairs, see {@link #main(String[])}. The defaults for the generated
+ * queries match the defaults of {@link SyntheticCorpus}, so a server started on a corpus written by it gets
+ * phrase queries that match.
+ */
+public final class LoadGenerator {
+
+    // -------------------- Private Statics --------------------
+
+    private static final int GENERATED_QUERIES = 1000;
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    // -------------------- Private Variables --------------------
+
+    private final String baseUrl;
+    private final long warmupNanos;
+    private final long durationNanos;
+    private final ExecutorService workers;
+    private final Map<String, RouteStats> routes = new LinkedHashMap<>();
+    private final List<Thread> dispatchers = new ArrayList<>();
+    private volatile long measurementStart;
+
+    // -------------------- Constructors --------------------
+
+    private LoadGenerator(String baseUrl, long warmupSeconds, long durationSeconds, int threads) {
+        this.baseUrl = baseUrl;
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(warmupSeconds);
+        this.durationNanos = TimeUnit.SECONDS.toNanos(durationSeconds);
+        AtomicInteger count = new AtomicInteger(0);
+        this.workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "load-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // -------------------- Main --------------------
+
+    /**
+     * Supported arguments, all optional:
+     * <ul>
+     *     <li>{@code url}: the server, defaults to {@code http://localhost:9090}</li>
+     *     <li>{@code warmupSeconds}, {@code durationSeconds}: requests during the warmup are sent but not
+     *     measured</li>
+     *     <li>{@code searchRate}, {@code statsRate}, {@code uploadRate}: requests per second per route, 0
+     *     disables a route</li>
+     *     <li>{@code modes}: the mix of search modes as weights, e.g. {@code phrase:60,all:30,prefix:10}</li>
+     *     <li>{@code queries}: a file with one search per line, instead of generated searches</li>
+     *     <li>{@code pageSize}, {@code fields}: passed on to {@code /search}</li>
+     *     <li>{@code threads}: the number of concurrent connections</li>
+     *     <li>{@code books}, {@code wordsPerBook}, {@code seed}: the {@link SyntheticCorpus} that queries
+     *     and uploads are generated from</li>
+     * </ul>
+     */
+    public static void main(String[] args) throws Exception {
+        Map<String, String> arguments = parseArguments(args);
+        String url = arguments.getOrDefault("url", "http://localhost:9090");
+        long warmupSeconds = Long.parseLong(arguments.getOrDefault("warmupSeconds", "10"));
+        long durationSeconds = Long.parseLong(arguments.getOrDefault("durationSeconds", "60"));
+        int threads = Integer.parseInt(arguments.getOrDefault("threads", "64"));
+        double searchRate = Double.parseDouble(arguments.getOrDefault("searchRate", "50"));
+        double statsRate = Double.parseDouble(arguments.getOrDefault("statsRate", "5"));
+        double uploadRate = Double.parseDouble(arguments.getOrDefault("uploadRate", "1"));
+        String pageSize = arguments.getOrDefault("pageSize", "10");
+        String fields = arguments.getOrDefault("fields", "author,title,context");
+        long seed = Long.parseLong(arguments.getOrDefault("seed", "42"));
+        int books = Integer.parseInt(arguments.getOrDefault("books", "1000"));
+        int wordsPerBook = Integer.parseInt(arguments.getOrDefault("wordsPerBook", "10000"));
+
+        SyntheticCorpus corpus = new SyntheticCorpus(seed, books, wordsPerBook);
+        List<String> queries = arguments.containsKey("queries")
+                ? Files.readAllLines(Paths.get(arguments.get("queries")), StandardCharsets.UTF_8)
+                : generateQueries(corpus, new Random(seed));
+        Map<String, Integer> modes = parseModes(arguments.getOrDefault("modes", "phrase:60,all:30,prefix:10"));
+
+        LoadGenerator generator = new LoadGenerator(url, warmupSeconds, durationSeconds, threads);
+        if (searchRate > 0) {
+            Random random = new Random(seed + 1);
+            generator.addRoute("search", searchRate, () -> {
+                String mode = pickMode(modes, random);
+                String query = queries.get(random.nextInt(queries.size()));
+                if (mode.equals("prefix")) {
+                    query = query.substring(0, Math.max(1, query.length() - 2));
+                }
+                return new Call("GET", "/search/" + encode(query) + "?mode=" + mode + "&size=" + pageSize
+                        + "&fields=" + encode(fields), null);
+            });
+        }
+        if (statsRate > 0) {
+            generator.addRoute("stats", statsRate, () -> new Call("GET", "/stats", null));
+        }
+        if (uploadRate > 0) {
+            AtomicInteger nextBook = new AtomicInteger(books);
+            generator.addRoute("upload", uploadRate, () -> new Call("POST", "/upload",
+                    corpus.book(nextBook.getAndIncrement()).getBytes(StandardCharsets.UTF_8)));
+        }
+        generator.run();
+        generator.report();
+    }
+
+    // -------------------- Private Methods --------------------
+
+    private void addRoute(String name, double rate, Supplier<Call> calls) {
+        RouteStats stats = new RouteStats();
+        routes.put(name, stats);
+        long interval = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        Thread dispatcher = new Thread(() -> dispatch(interval, stats, calls), "load-dispatcher-" + name);
+        dispatcher.setDaemon(true);
+        dispatchers.add(dispatcher);
+    }
+
+    private void run() throws InterruptedException {
+        long start = System.nanoTime();
+        measurementStart = start + warmupNanos;
+        System.err.println("Sending load to " + baseUrl + " for " + TimeUnit.NANOSECONDS.toSeconds(warmupNanos + durationNanos)
+                + "s, measuring the last " + TimeUnit.NANOSECONDS.toSeconds(durationNanos) + "s...");
+        dispatchers.forEach(Thread::start);
+        for (Thread dispatcher : dispatchers) {
+            dispatcher.join();
+        }
+        workers.shutdown();
+        if (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+            System.err.println("Requests still in flight after one minute were not measured.");
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Issues calls on a fixed schedule until the end of the run. Calls are handed to the workers even
+     * when all of them are busy, so requests queue up behind a slow server like they would from real
+     * clients.
+     */
+    private void dispatch(long intervalNanos, RouteStats stats, Supplier<Call> calls) {
+        long start = System.nanoTime();
+        long end = measurementStart + durationNanos;
+        for (long i = 0; ; i++) {
+            long intendedStart = start + i * intervalNanos;
+            if (intendedStart >= end) {
+                return;
+            }
+            long wait = intendedStart - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Call call = calls.get();
+            workers.execute(() -> send(call, intendedStart, stats));
+        }
+    }
+
+    private void send(Call call, long intendedStart, RouteStats stats) {
+        long sent = System.nanoTime();
+        boolean failed;
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + call.path).openConnection();
+            connection.setRequestMethod(call.method);
+            if (call.body != null) {
+                connection.setDoOutput(true);
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(call.body);
+                }
+            }
+            int status = connection.getResponseCode();
+            failed = status >= 400;
+            try (InputStream in = failed ? connection.getErrorStream() : connection.getInputStream()) {
+                drain(in);
+            }
+        } catch (IOException e) {
+            failed = true;
+        }
+        long done = System.nanoTime();
+
+        if (intendedStart >= measurementStart) {
+            stats.responseTime.recordValue(done - intendedStart);
+            stats.serviceTime.recordValue(done - sent);
+            stats.requests.incrementAndGet();
+            if (failed) {
+                stats.errors.incrementAndGet();
+            }
+        }
+    }
+
+    private void report() {
+        double seconds = durationNanos / 1e9;
+        for (Map.Entry<String, RouteStats> route : routes.entrySet()) {
+            RouteStats stats = route.getValue();
+            System.out.println(String.format("%-8s %d requests, %d errors, %.1f req/s",
+                    route.getKey(), stats.requests.get(), stats.errors.get(), stats.requests.get() / seconds));
+            System.out.println("  response time " + percentiles(stats.responseTime));
+            System.out.println("  service time  " + percentiles(stats.serviceTime));
+        }
+    }
+
+    // -------------------- Private Static Methods --------------------
+
+    private static String percentiles(Histogram histogram) {
+        if (histogram.getTotalCount() == 0) {
+            return "no samples";
+        }
+        return String.format("p50 %.2f ms, p95 %.2f ms, p99 %.2f ms, max %.2f ms",
+                millis(histogram.getValueAtPercentile(50)),
+                millis(histogram.getValueAtPercentile(95)),
+                millis(histogram.getValueAtPercentile(99)),
+                millis(histogram.getMaxValue()));
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static void drain(InputStream in) throws IOException {
+        if (in == null) {
+            return;
+        }
+        byte[] buffer = new byte[8192];
+        while (in.read(buffer) != -1) {
+            // discard, reading to the end lets the connection be reused
+        }
+    }
+
+    private static List<String> generateQueries(SyntheticCorpus corpus, Random random) {
+        List<String> queries = new ArrayList<>(GENERATED_QUERIES);
+        for (int i = 0; i < GENERATED_QUERIES; i++) {
+            List<String> words = corpus.words(random.nextInt(corpus.getBookCount()));
+            int start = random.nextInt(Math.max(1, words.size() - 2));
+            queries.add(String.join(" ", words.subList(start, Math.min(words.size(), start + 2))));
+        }
+        return queries;
+    }
+
+    private static Map<String, Integer> parseModes(String modes) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String mode : modes.split(",")) {
+            String[] split = mode.split(":", 2);
+            weights.put(split[0].trim(), split.length == 2 ? Integer.parseInt(split[1].trim()) : 1);
+        }
+        return weights;
+    }
+
+    private static String pickMode(Map<String, Integer> modes, Random random) {
+        int total = modes.values().stream().mapToInt(Integer::intValue).sum();
+        int target = random.nextInt(total);
+        for (Map.Entry<String, Integer> mode : modes.entrySet()) {
+            target -= mode.getValue();
+            if (target < 0) {
+                return mode.getKey();
+            }
+        }
+        throw new IllegalStateException("No search mode to pick from.");
+    }
+
+    private static String encode(String text) {
+        try {
+            return URLEncoder.encode(text, "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not supported.", e);
+        }
+    }
+
+    private static Map<String, String> parseArguments(String[] args) {
+        Map<String, String> arguments = new HashMap<>();
+        for (String arg : args) {
+            String[] split = arg.split("=", 2);
+            if (split.length == 2) {
+                arguments.put(split[0], split[1]);
+            }
+        }
+        return arguments;
+    }
+
+    // -------------------- Inner Classes --------------------
+
+    private static final class Call {
+        private final String method;
+        private final String path;
+        private final byte[] body;
+
+        private Call(String method, String path, byte[] body) {
+            this.method = method;
+            this.path = path;
+            this.body = body;
+        }
+    }
+
+    private static final class RouteStats {
+        private final Histogram responseTime = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+        private final Histogram serviceTime = new ConcurrentHistogram(SIGNIFICANT_DIGITS);
+        private final AtomicLong requests = new AtomicLong(0L);
+        private final AtomicLong errors = new AtomicLong(0L);
+    }
+}
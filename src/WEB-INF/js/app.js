@@ -4,9 +4,13 @@
 $(document).ready(function () {
     const searchBox = $("#search_text");
     searchBox.focus();
+    var suggestTimer = null;
     searchBox.keyup(function(event) {
         if (event.keyCode == 13){
             $("#submit_search").click();
+        } else {
+            clearTimeout(suggestTimer);
+            suggestTimer = setTimeout(suggest, 150);
         }
     });
 
@@ -25,35 +29,78 @@ $(document).ready(function () {
     })
 });
 
+// the search the shown results came from, so "More results" keeps paging through it after the search box changes
+var shownSearch = null;
+
 function performSearch() {
     const searchText = $('#search_text').val();
     if (searchText) {
-        $.ajax({
-            url: `/search/${encodeURIComponent(searchText)}`,
-            type: 'GET',
-            dataType: 'json',
-            success: function(response) {
-                const resultsDiv = $('#search_results');
+        loadResults(`/search/${encodeURIComponent(searchText)}`, null);
+    }
+}
+
+function showMoreResults() {
+    if (shownSearch && shownSearch.nextCursor) {
+        loadResults(shownSearch.url, shownSearch.nextCursor);
+    }
+}
+
+function loadResults(searchUrl, cursor) {
+    const cursorParam = cursor ? `?cursor=${encodeURIComponent(cursor)}` : '';
+    $.ajax({
+        url: `${searchUrl}${cursorParam}`,
+        type: 'GET',
+        dataType: 'json',
+        success: function(response) {
+            const resultsDiv = $('#search_results');
+            $('#more_results').remove();
+            if (!cursor) {
                 resultsDiv.empty();
-                if (response.length == 0) {
-                    resultsDiv.append('No Results Found!');
-                } else {
-                    const results = response.results;
-                    var responseHtml = `Found the following ${results.length} quotes in ${response.elapsed_time}ms:`;
-                    results.forEach((element, index) => {
-                        responseHtml += '<div class=\"search_hit_set\">\n';
-                        responseHtml += `<h2>${element.title} by ${element.author}</h2>`;
+            }
+            shownSearch = { url: searchUrl, nextCursor: response.next_cursor };
+            if (response.total_hits == 0) {
+                resultsDiv.append('No Results Found!');
+            } else {
+                const results = response.results;
+                var responseHtml = cursor ? '' : `Found ${response.total_hits} books in ${response.elapsed_time}ms:`;
+                results.forEach((element, index) => {
+                    responseHtml += '<div class=\"search_hit_set\">\n';
+                    responseHtml += `<h2>${element.title} by ${element.author}</h2>`;
+                    if (element.context) {
                         responseHtml += `"...${element.context}..."`;
-                        responseHtml += '</div>\n';
-                    });
-                    resultsDiv.append(responseHtml);
+                    }
+                    responseHtml += '</div>\n';
+                });
+                if (response.next_cursor) {
+                    responseHtml += '<button id="more_results" onclick="showMoreResults()">More results</button>';
                 }
-            },
-            error: function() {
-                $('#search_results').empty().append('Something went way wrong.');
+                resultsDiv.append(responseHtml);
             }
-        });
+        },
+        error: function() {
+            $('#search_results').empty().append('Something went way wrong.');
+        }
+    });
+}
+
+function suggest() {
+    const searchText = $('#search_text').val();
+    const suggestionList = $('#suggestions');
+    if (!searchText) {
+        suggestionList.empty();
+        return;
     }
+    $.ajax({
+        url: `/suggest/${encodeURIComponent(searchText)}`,
+        type: 'GET',
+        dataType: 'json',
+        success: function(response) {
+            suggestionList.empty();
+            response.suggestions.forEach((element) => {
+                suggestionList.append($('<option>').attr('value', element.title).text(`${element.title} by ${element.author}`));
+            });
+        }
+    });
 }
 
 function uploadBook() {
@@ -69,7 +116,7 @@ function uploadBook() {
             processData: false,
             data: formData,
             success: function(response) {
-                $('#search_results').empty().append(response);
+                $('#search_results').empty().append(`Thank you for the upload. \"${book.name}\" will be searchable shortly (upload ${response.job_id}).`);
             },
             error: function() {
                 $('#search_results').empty().append(`Failed to upload \"${book.name}\".`);
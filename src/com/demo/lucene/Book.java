@@ -1,5 +1,7 @@
 package com.demo.lucene;
 
+import java.io.Reader;
+
 import static spark.utils.StringUtils.isEmpty;
 
 /**
@@ -11,14 +13,14 @@ final class Book {
 
     private final String author;
     private final String title;
-    private final String content;
+    private final Reader content;
 
     // -------------------- Constructors --------------------
 
-    Book(String author, String title, String content) {
+    Book(String author, String title, Reader content) {
         this.author = isEmpty(author) ? "Unknown" : author;
         this.title = isEmpty(title) ? "Unknown" : title;
-        this.content = content == null ? "" : content;
+        this.content = content;
     }
 
     // -------------------- Default Methods --------------------
@@ -31,7 +33,10 @@ final class Book {
         return title;
     }
 
-    final String getContent() {
+    /**
+     * The body of the book, positioned just after its header. It can only be consumed once.
+     */
+    final Reader getContent() {
         return content;
     }
 
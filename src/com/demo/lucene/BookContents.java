@@ -0,0 +1,77 @@
+package com.demo.lucene;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Loads the body of a book for highlighting. The stored body is used when there is one; otherwise the body
+ * is read from the file the book was indexed from, but only if the file hasn't changed since, as the
+ * offsets in the index would no longer match it.
+ */
+final class BookContents {
+
+    // -------------------- Private Statics --------------------
+
+    private static final Set<String> FIELDS = new HashSet<>(Arrays.asList("contents", "book_key"));
+
+    // -------------------- Private Variables --------------------
+
+    private final BookIndexer indexer;
+
+    // -------------------- Constructors --------------------
+
+    BookContents(BookIndexer indexer) {
+        this.indexer = indexer;
+    }
+
+    // -------------------- Default Methods --------------------
+
+    /**
+     * Returns the body of the book, or null if it isn't stored and its file is gone or has changed.
+     */
+    final String load(IndexReader reader, int docId) throws IOException {
+        Document doc = reader.document(docId, FIELDS);
+        String contents = doc.get("contents");
+        if (contents != null) {
+            return contents;
+        }
+
+        String key = doc.get("book_key");
+        Path path = key == null ? null : indexer.bookPath(key);
+        if (path == null) {
+            return null;
+        }
+        String fingerprint = indexer.fingerprint(path);
+        if (fingerprint.isEmpty() || !fingerprint.equals(indexedFingerprint(reader, docId))) {
+            return null;
+        }
+        try (Reader fileReader = new BufferedReader(new InputStreamReader(Files.newInputStream(path), StandardCharsets.UTF_8))) {
+            // the body was indexed without its header, so the offsets start after it
+            return BookParser.readFully(BookParser.parse(fileReader).getContent());
+        }
+    }
+
+    // -------------------- Private Static Methods --------------------
+
+    private static String indexedFingerprint(IndexReader reader, int docId) throws IOException {
+        List<LeafReaderContext> leaves = reader.leaves();
+        LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+        BinaryDocValues fingerprints = leaf.reader().getBinaryDocValues("fingerprint");
+        return fingerprints == null ? "" : fingerprints.get(docId - leaf.docBase).utf8ToString();
+    }
+}
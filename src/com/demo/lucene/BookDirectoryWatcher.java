@@ -0,0 +1,191 @@
+package com.demo.lucene;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Watches the books directory and feeds created, modified and deleted books into the {@link BookIndexer}.
+ * Events are collected until the directory has been quiet for the debounce interval, so a book that is
+ * still being copied is indexed once, after the copy finishes. A steady stream of events is flushed at
+ * least every {@value #MAX_DELAY_DEBOUNCES} debounce intervals so it can't hold back a batch forever.
+ */
+final class BookDirectoryWatcher implements Closeable {
+
+    // -------------------- Private Statics --------------------
+
+    private static final int MAX_DELAY_DEBOUNCES = 10;
+
+    // -------------------- Private Variables --------------------
+
+    private final BookIndexer indexer;
+    private final Path directory;
+    private final long debounceMillis;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    // only touched by the watcher thread
+    private final Map<Path, Long> pendingBooks = new LinkedHashMap<>();
+    private boolean overflowed = false;
+    private long lastEventMillis = 0L;
+    private long retryAtMillis = 0L;
+
+    private volatile boolean closed = false;
+    private volatile long oldestUnindexedMillis = 0L;
+    private volatile int pendingChanges = 0;
+
+    // -------------------- Constructors --------------------
+
+    BookDirectoryWatcher(BookIndexer indexer, Path directory, long debounceMillis) throws IOException {
+        this.indexer = indexer;
+        this.directory = directory;
+        this.debounceMillis = debounceMillis;
+        this.watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+        this.thread = new Thread(this::watch, "book-watcher");
+        this.thread.setDaemon(true);
+    }
+
+    // -------------------- Default Methods --------------------
+
+    final void start() {
+        thread.start();
+    }
+
+    /**
+     * How long the oldest change that has not been indexed yet has been waiting, or zero when the index is
+     * caught up with the directory.
+     */
+    final long getLagMillis() {
+        long oldest = oldestUnindexedMillis;
+        return oldest == 0L ? 0L : Math.max(0L, System.currentTimeMillis() - oldest);
+    }
+
+    final int getPendingChanges() {
+        return pendingChanges;
+    }
+
+    // -------------------- Overridden Methods --------------------
+
+    /**
+     * Stops watching and waits for a batch that is being indexed, so the indexer can close its writers
+     * afterwards. The thread isn't interrupted, since an interrupt during a write closes the channel of the
+     * writer; closing the watch service wakes it up instead.
+     */
+    @Override
+    public final void close() throws IOException {
+        closed = true;
+        watchService.close();
+        try {
+            thread.join(TimeUnit.MINUTES.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            System.err.println("Gave up waiting for the book watcher to finish its batch.");
+        }
+    }
+
+    // -------------------- Private Methods --------------------
+
+    private void watch() {
+        try {
+            while (!closed) {
+                WatchKey key = pendingBooks.isEmpty() && !overflowed
+                        ? watchService.take()
+                        : watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    collectEvents(key);
+                }
+                if (shouldFlush()) {
+                    flush();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // shutting down
+        }
+    }
+
+    private void collectEvents(WatchKey key) {
+        long now = System.currentTimeMillis();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            boolean pending = false;
+            if (event.kind() == OVERFLOW) {
+                overflowed = true;
+                pending = true;
+            } else {
+                Path name = (Path) event.context();
+                if (BookParser.isBook(directory.toFile(), name.toString())) {
+                    pendingBooks.putIfAbsent(directory.resolve(name), now);
+                    pending = true;
+                }
+            }
+            // other files never get flushed, so they must not start the lag clock
+            if (pending && oldestUnindexedMillis == 0L) {
+                oldestUnindexedMillis = now;
+            }
+        }
+        lastEventMillis = now;
+        pendingChanges = pendingBooks.size();
+        key.reset();
+    }
+
+    private boolean shouldFlush() {
+        if (pendingBooks.isEmpty() && !overflowed) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (now < retryAtMillis) {
+            return false;
+        }
+        long quietFor = now - lastEventMillis;
+        long waitingFor = now - oldestUnindexedMillis;
+        return quietFor >= debounceMillis || waitingFor >= debounceMillis * MAX_DELAY_DEBOUNCES;
+    }
+
+    /**
+     * Indexes the pending changes. If that fails they stay pending, and the lag keeps growing, until a
+     * retry after {@value #MAX_DELAY_DEBOUNCES} debounce intervals succeeds.
+     */
+    private void flush() {
+        try {
+            if (overflowed) {
+                // events were dropped, so fall back to diffing the whole directory
+                indexer.performIncrementalIndexing();
+            } else {
+                List<Path> changed = new ArrayList<>();
+                List<Path> deleted = new ArrayList<>();
+                for (Path book : pendingBooks.keySet()) {
+                    if (Files.isRegularFile(book)) {
+                        changed.add(book);
+                    } else {
+                        deleted.add(book);
+                    }
+                }
+                indexer.applyFileChanges(changed, deleted);
+            }
+        } catch (IOException | RuntimeException e) {
+            retryAtMillis = System.currentTimeMillis() + debounceMillis * MAX_DELAY_DEBOUNCES;
+            System.err.println("Failed to index changes from the books directory, retrying in "
+                    + (debounceMillis * MAX_DELAY_DEBOUNCES) + "ms.");
+            e.printStackTrace(System.err);
+            return;
+        }
+        pendingBooks.clear();
+        overflowed = false;
+        pendingChanges = 0;
+        oldestUnindexedMillis = 0L;
+    }
+}
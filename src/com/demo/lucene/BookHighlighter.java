@@ -0,0 +1,210 @@
+package com.demo.lucene;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.highlight.Highlighter;
+import org.apache.lucene.search.highlight.InvalidTokenOffsetsException;
+import org.apache.lucene.search.highlight.QueryScorer;
+import org.apache.lucene.search.highlight.SimpleFragmenter;
+import org.apache.lucene.search.highlight.TextFragment;
+import org.apache.lucene.search.highlight.TokenSources;
+import org.apache.lucene.search.postingshighlight.CustomSeparatorBreakIterator;
+import org.apache.lucene.search.postingshighlight.DefaultPassageFormatter;
+import org.apache.lucene.search.postingshighlight.PassageFormatter;
+import org.apache.lucene.search.postingshighlight.PostingsHighlighter;
+import org.apache.lucene.search.vectorhighlight.FastVectorHighlighter;
+import org.apache.lucene.search.vectorhighlight.FieldQuery;
+import org.apache.lucene.search.vectorhighlight.ScoreOrderFragmentsBuilder;
+import org.apache.lucene.search.vectorhighlight.SimpleFragListBuilder;
+
+import java.io.IOException;
+import java.text.BreakIterator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Produces the context snippet shown for each search hit. A search gets one {@link Request}, which holds
+ * the state that can be shared between its hits and enforces the per-search time budget: once the budget
+ * is spent, or the deadline of the search has passed, the remaining hits of that search get no snippet
+ * instead of making the whole search slow.
+ */
+final class BookHighlighter {
+
+    // -------------------- Private Statics --------------------
+
+    private static final String FIELD = "contents";
+    private static final String[] PRE_TAGS = { "<B>" };
+    private static final String[] POST_TAGS = { "</B>" };
+    private static final String[] FIELDS = { FIELD };
+    private static final int[] ONE_PASSAGE = { 1 };
+
+    // -------------------- Private Variables --------------------
+
+    private final HighlighterType type;
+    private final int snippetSize;
+    private final long budgetNanos;
+    private final FastVectorHighlighter vectorHighlighter;
+    private final PostingsHighlighter postingsHighlighter = new ContentsPostingsHighlighter();
+    private final Analyzer analyzer = new StandardAnalyzer();
+    private final BookContents bookContents;
+
+    // -------------------- Constructors --------------------
+
+    BookHighlighter(IndexSettings settings, BookContents bookContents) {
+        this.type = supportedType(settings.getHighlighterType(), settings.getIndexProfile());
+        this.bookContents = bookContents;
+        this.snippetSize = settings.getSnippetSize();
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(settings.getHighlightBudgetMillis());
+        this.vectorHighlighter = new FastVectorHighlighter(
+                true,
+                true,
+                new SimpleFragListBuilder(),
+                new ScoreOrderFragmentsBuilder(PRE_TAGS, POST_TAGS)
+        );
+    }
+
+    // -------------------- Default Methods --------------------
+
+    /**
+     * Starts highlighting the hits of a search over the given shards; the shard index of each hit selects
+     * its searcher. The budget starts when the request is created, so create it once the hits have been
+     * collected. The deadline of the trace, if it has one, cuts the budget short.
+     */
+    final Request newRequest(Query query, IndexSearcher[] searchers, SearchTrace trace) throws IOException {
+        return new Request(query, searchers, trace);
+    }
+
+    // -------------------- Private Static Methods --------------------
+
+    /**
+     * The vector highlighter needs a stored body and term vectors, the postings highlighter needs offsets in
+     * the postings; when the index profile lacks them, the other one is used instead.
+     */
+    private static HighlighterType supportedType(HighlighterType type, IndexProfile profile) {
+        HighlighterType supported = type;
+        if (type == HighlighterType.VECTOR && !(profile.isStored() && profile.hasTermVectors())) {
+            supported = HighlighterType.POSTINGS;
+        } else if (type == HighlighterType.POSTINGS && !profile.hasOffsets()) {
+            supported = HighlighterType.VECTOR;
+        }
+        if (supported != type) {
+            System.err.println("The " + type + " highlighter doesn't work with the " + profile
+                    + " index profile, using the " + supported + " highlighter.");
+        }
+        return supported;
+    }
+
+    // -------------------- Inner Classes --------------------
+
+    final class Request {
+
+        private final Query query;
+        private final IndexSearcher[] searchers;
+        private final SearchTrace trace;
+        private final long deadline;
+        private final FieldQuery[] fieldQueries;
+        private final Highlighter analyzingHighlighter;
+        private boolean budgetExhausted = false;
+
+        private Request(Query query, IndexSearcher[] searchers, SearchTrace trace) throws IOException {
+            this.query = query;
+            this.searchers = searchers;
+            this.trace = trace;
+            this.deadline = System.nanoTime() + budgetNanos;
+            this.fieldQueries = new FieldQuery[searchers.length];
+            if (type == HighlighterType.VECTOR) {
+                for (int i = 0; i < searchers.length; i++) {
+                    fieldQueries[i] = vectorHighlighter.getFieldQuery(query, searchers[i].getIndexReader());
+                }
+            }
+            if (type == HighlighterType.ANALYZING) {
+                this.analyzingHighlighter = new Highlighter(new QueryScorer(query));
+                this.analyzingHighlighter.setTextFragmenter(new SimpleFragmenter(snippetSize));
+            } else {
+                this.analyzingHighlighter = null;
+            }
+        }
+
+        /**
+         * Returns the best snippet for the hit, an empty string if the body of the hit can't be loaded or no
+         * match could be located, or null if the time budget or the deadline of the search has run out.
+         */
+        final String highlight(ScoreDoc hit) throws IOException, InvalidTokenOffsetsException {
+            if (budgetExhausted || System.nanoTime() - deadline > 0 || trace.isPastDeadline()) {
+                budgetExhausted = true;
+                return null;
+            }
+            IndexSearcher searcher = searchers[hit.shardIndex];
+            String snippet;
+            switch (type) {
+                case VECTOR:
+                    snippet = highlightFromVectors(fieldQueries[hit.shardIndex], searcher, hit.doc);
+                    break;
+                case POSTINGS:
+                    snippet = highlightFromPostings(searcher, hit.doc);
+                    break;
+                default:
+                    snippet = highlightByAnalyzing(searcher, hit.doc);
+                    break;
+            }
+            return snippet == null ? "" : snippet;
+        }
+
+        final boolean isBudgetExhausted() {
+            return budgetExhausted;
+        }
+
+        private String highlightFromVectors(FieldQuery fieldQuery, IndexSearcher searcher, int docId) throws IOException {
+            return vectorHighlighter.getBestFragment(fieldQuery, searcher.getIndexReader(), docId, FIELD, snippetSize);
+        }
+
+        private String highlightFromPostings(IndexSearcher searcher, int docId) throws IOException {
+            String[] snippets = postingsHighlighter.highlightFields(FIELDS, query, searcher, new int[] { docId }, ONE_PASSAGE).get(FIELD);
+            return snippets == null || snippets[0] == null ? null : snippets[0].trim();
+        }
+
+        private String highlightByAnalyzing(IndexSearcher searcher, int docId) throws IOException, InvalidTokenOffsetsException {
+            String contents = bookContents.load(searcher.getIndexReader(), docId);
+            if (contents == null) {
+                return null;
+            }
+            TokenStream tokenStream = TokenSources.getTokenStream(FIELD, searcher.getIndexReader().getTermVectors(docId), contents, analyzer, -1);
+            TextFragment[] fragments = analyzingHighlighter.getBestTextFragments(tokenStream, contents, true, 1);
+            return fragments.length == 1 ? fragments[0].toString() : null;
+        }
+    }
+
+    /**
+     * Splits books into lines, which makes a snippet of about the right length for plain text books, and
+     * loads the body through {@link BookContents} so it works without a stored body.
+     */
+    private final class ContentsPostingsHighlighter extends PostingsHighlighter {
+
+        private ContentsPostingsHighlighter() {
+            super(Integer.MAX_VALUE - 1);
+        }
+
+        @Override
+        protected BreakIterator getBreakIterator(String field) {
+            return new CustomSeparatorBreakIterator('\n');
+        }
+
+        @Override
+        protected PassageFormatter getFormatter(String field) {
+            return new DefaultPassageFormatter(PRE_TAGS[0], POST_TAGS[0], " ... ", false);
+        }
+
+        @Override
+        protected String[][] loadFieldValues(IndexSearcher searcher, String[] fields, int[] docIds, int maxLength) throws IOException {
+            String[][] contents = new String[fields.length][docIds.length];
+            for (int i = 0; i < docIds.length; i++) {
+                String body = bookContents.load(searcher.getIndexReader(), docIds[i]);
+                contents[0][i] = body == null ? "" : body;
+            }
+            return contents;
+        }
+    }
+}
@@ -1,41 +1,146 @@
 package com.demo.lucene;
 
+import com.demo.web.BackupReport;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.BinaryDocValuesField;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
 import org.apache.lucene.document.LongField;
+import org.apache.lucene.document.SortedDocValuesField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexOptions;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.KeepOnlyLastCommitDeletionPolicy;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TieredMergePolicy;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.NIOFSDirectory;
+import org.apache.lucene.store.NRTCachingDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Stream;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * Keeps the index of the books directory and uploaded books up to date. Books are spread over
+ * {@link IndexSettings#setShardCount(int) a number of shards} by the hash of their key, each shard with its
+ * own directory and writer, so indexing, commits and merges run in parallel across shards.
+ *
  * @author Scott Faria <scott.faria@gmail.com>
  */
-public final class BookIndexer {
+public final class BookIndexer implements Closeable {
+
+    // -------------------- Private Statics --------------------
+
+    private static final int MAX_DOC_VALUE_LENGTH = 1024;
+    private static final int MERGE_BACKLOG = 5;
+    private static final String DOCUMENT_COUNT = "document_count";
+    private static final String CREATION_DATE = "creation_date";
+    private static final String LAST_UPDATE_DATE = "last_update_date";
+    private static final String SHARD_COUNT = "shard_count";
+
+    private static final FieldType SUGGEST_TYPE = new FieldType();
+    static {
+        SUGGEST_TYPE.setIndexOptions(IndexOptions.DOCS);
+        SUGGEST_TYPE.setTokenized(true);
+        SUGGEST_TYPE.freeze();
+    }
 
     // -------------------- Private Variables --------------------
 
     private final Path rawDataPath;
-    private final Path indexPath;
+    private final IndexSettings settings;
+    private final List<Directory> directories = new ArrayList<>();
+    private final List<IndexWriter> writers = new ArrayList<>();
+    private final List<SnapshotDeletionPolicy> snapshotPolicies = new ArrayList<>();
+    private final Object commitLock = new Object();
+    private final Object backupLock = new Object();
+    private final ExecutorService shardExecutor;
+    private final ScheduledExecutorService committer;
+    private final AtomicInteger uncommittedDocuments = new AtomicInteger(0);
+    private final List<Runnable> commitListeners = new CopyOnWriteArrayList<>();
+    private final Metrics metrics = new Metrics();
+    private volatile BookDirectoryWatcher watcher;
+
+    // persisted in the user data of every commit
+    private final AtomicInteger documentCount = new AtomicInteger(0);
+    private final AtomicLong creationDate = new AtomicLong(0L);
+    private final AtomicLong lastUpdateDate = new AtomicLong(0L);
 
     // -------------------- Constructors --------------------
 
-    public BookIndexer(Path rawDataPath, Path indexPath) {
+    /**
+     * @throws IllegalArgumentException if the index at {@code indexPath} has a different number of shards
+     */
+    public BookIndexer(Path rawDataPath, Path indexPath, IndexSettings settings) throws IOException {
         this.rawDataPath = rawDataPath;
-        this.indexPath = indexPath;
+        this.settings = settings;
+        int shardCount = settings.getShardCount();
+        int indexShardCount = readShardCount(indexPath);
+        if (indexShardCount != 0 && indexShardCount != shardCount) {
+            // the books would be looked for in other shards than they were indexed into
+            throw new IllegalArgumentException("The index in " + indexPath + " has " + indexShardCount + " shards, not "
+                    + shardCount + ". Delete the index to rebuild it with a different number of shards.");
+        }
+        for (int shard = 0; shard < shardCount; shard++) {
+            Directory directory = openDirectory(shardPath(indexPath, shard, shardCount));
+            directories.add(directory);
+            writers.add(createWriter(directory));
+        }
+        AtomicInteger shardThreads = new AtomicInteger(0);
+        this.shardExecutor = Executors.newFixedThreadPool(shardCount, r -> {
+            Thread thread = new Thread(r, "index-shard-" + shardThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        loadIndexStatistics();
+
+        long commitInterval = settings.getCommitIntervalMillis();
+        this.committer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "index-committer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.committer.scheduleWithFixedDelay(this::commitQuietly, commitInterval, commitInterval, TimeUnit.MILLISECONDS);
     }
 
     // -------------------- Public Methods --------------------
@@ -43,104 +148,625 @@ public final class BookIndexer {
     public final void performFullIndexing() throws IOException {
         System.err.println("Performing a full indexing of all books...");
         long startTime = System.currentTimeMillis();
-        AtomicInteger count = new AtomicInteger(0);
+        new BulkIndexingPipeline(this, settings).run(rawDataPath);
 
-        try (IndexWriter writer = createWriter()) {
-            Stream.of(rawDataPath.toFile().listFiles(BookParser::isBook))
-                    .parallel()
-                    .map(this::newInputStream)
-                    .forEach(in -> {
-                        indexRecord(in, writer);
-                        maybeCommit(count, writer);
-                    });
+        long now = new Date().getTime();
+        documentCount.set(countBooks());
+        creationDate.set(now);
+        lastUpdateDate.set(now);
+        commit();
+        forceMerge();
+
+        long endTime = System.currentTimeMillis();
+        long totalTime = endTime - startTime;
+        System.err.println("Indexing finished in " + TimeUnit.MILLISECONDS.toSeconds(totalTime) + "s.");
+    }
+
+    /**
+     * Brings the index in line with the books directory by comparing the fingerprint stored with each book
+     * against the file on disk. Only new and changed books are parsed and re-indexed, and books whose file
+     * has been removed are deleted; books added through {@link #addToIndex(InputStream)} are left alone.
+     */
+    public final void performIncrementalIndexing() throws IOException {
+        System.err.println("Performing an incremental indexing of changed books...");
+        long startTime = System.currentTimeMillis();
+        Map<String, String> indexedFingerprints = readFileFingerprints();
+
+        int count = new BulkIndexingPipeline(this, settings).run(rawDataPath, path -> {
+            String previous = indexedFingerprints.remove(bookKey(path));
+            return previous == null || !previous.equals(fingerprint(path));
+        });
+        for (String removedKey : indexedFingerprints.keySet()) {
+            writerFor(removedKey).deleteDocuments(new Term("book_key", removedKey));
+        }
 
-            Date date = new Date();
-            createIndexDocument(count, date, date, writer);
+        if (count > 0 || !indexedFingerprints.isEmpty()) {
+            documentCount.set(countBooks());
+            lastUpdateDate.set(new Date().getTime());
+            commit();
         }
 
         long endTime = System.currentTimeMillis();
         long totalTime = endTime - startTime;
-        System.err.println("Indexing finished in " + TimeUnit.MILLISECONDS.toSeconds(totalTime) + "s.");
+        System.err.println("Incremental indexing finished in " + TimeUnit.MILLISECONDS.toSeconds(totalTime) + "s: "
+                + count + " books indexed, " + indexedFingerprints.size() + " removed.");
     }
 
+    /**
+     * Adds a single book to the index. The book becomes searchable as soon as the searcher next refreshes,
+     * and is made durable by the next group commit.
+     */
     public final void addToIndex(InputStream in) throws IOException {
-        try (IndexWriter writer = createWriter()) {
-            indexRecord(in, writer);
-            updateIndexStatistics(writer);
+        indexRecord(in, uploadKey(UUID.randomUUID().toString()));
+        documentCount.incrementAndGet();
+        lastUpdateDate.set(new Date().getTime());
+        documentAdded();
+    }
+
+    /**
+     * Starts watching the books directory, so books that are copied into it, changed or deleted are
+     * indexed without a restart. Changes are batched as described in {@link BookDirectoryWatcher}.
+     */
+    public final synchronized void startWatching() throws IOException {
+        if (watcher == null) {
+            watcher = new BookDirectoryWatcher(this, rawDataPath, settings.getWatchDebounceMillis());
+            watcher.start();
         }
     }
 
-    // -------------------- Private Methods --------------------
+    /**
+     * How far the index is behind changes seen in the books directory, in milliseconds. Always zero when
+     * the directory is not being watched.
+     */
+    public final long getIngestionLagMillis() {
+        BookDirectoryWatcher current = watcher;
+        return current == null ? 0L : current.getLagMillis();
+    }
+
+    public final Metrics getMetrics() {
+        return metrics;
+    }
+
+    public final int getPendingBookChanges() {
+        BookDirectoryWatcher current = watcher;
+        return current == null ? 0 : current.getPendingChanges();
+    }
+
+    /**
+     * The number of books in the index, including books that have not been committed yet.
+     */
+    public final int getDocumentCount() {
+        return documentCount.get();
+    }
+
+    public final long getCreationDate() {
+        return creationDate.get();
+    }
+
+    public final long getLastUpdateDate() {
+        return lastUpdateDate.get();
+    }
+
+    /**
+     * Registers a callback that is run after this indexer has committed changes to the index.
+     */
+    public final void addCommitListener(Runnable listener) {
+        commitListeners.add(listener);
+    }
+
+    /**
+     * Commits all pending changes to disk, together with the index statistics. The shards are committed in
+     * parallel. Concurrent callers are serialized by the commit lock, and the statistics are read while
+     * holding it, so a later commit never saves older statistics than an earlier one.
+     */
+    public final void commit() throws IOException {
+        int pending = uncommittedDocuments.getAndSet(0);
+        if (pending > 0 || writers.stream().anyMatch(IndexWriter::hasUncommittedChanges)) {
+            long startTime = System.nanoTime();
+            synchronized (commitLock) {
+                Map<String, String> commitData = statisticsCommitData();
+                forEachShard(writer -> {
+                    writer.setCommitData(commitData);
+                    writer.commit();
+                });
+            }
+            metrics.commitFinished(System.nanoTime() - startTime);
+            fireCommitListeners();
+        }
+    }
 
-    private InputStream newInputStream(File f) {
+    /**
+     * Copies the index to the configured backup path, committing pending changes first, see
+     * {@link IndexBackup}. Indexing goes on during the copy: the commit being copied is held by a snapshot,
+     * so merges can't delete its files until the copy is done. Shards are only committed together, so the
+     * snapshots of all shards are of the same commit.
+     */
+    public final BackupReport backup() throws IOException {
+        synchronized (backupLock) {
+            long startTime = System.currentTimeMillis();
+            commit();
+            List<IndexCommit> snapshots = new ArrayList<>();
+            try {
+                synchronized (commitLock) {
+                    for (SnapshotDeletionPolicy policy : snapshotPolicies) {
+                        snapshots.add(policy.snapshot());
+                    }
+                }
+                Path backupPath = settings.getBackupPath();
+                BackupReport report = new BackupReport(backupPath.toString());
+                for (int shard = 0; shard < snapshots.size(); shard++) {
+                    Path shardBackupPath = shardPath(backupPath, shard, snapshots.size());
+                    Files.createDirectories(shardBackupPath);
+                    try (Directory backup = FSDirectory.open(shardBackupPath)) {
+                        IndexBackup.copyCommit(directories.get(shard), snapshots.get(shard).getFileNames(), backup, shardBackupPath, report);
+                    }
+                }
+                report.setElapsedMillis(System.currentTimeMillis() - startTime);
+                System.err.println("Backed up the index to " + backupPath + ": " + report + ".");
+                return report;
+            } finally {
+                for (int shard = 0; shard < snapshots.size(); shard++) {
+                    snapshotPolicies.get(shard).release(snapshots.get(shard));
+                    writers.get(shard).deleteUnusedFiles();
+                }
+            }
+        }
+    }
+
+    // -------------------- Overridden Methods --------------------
+
+    @Override
+    public final void close() throws IOException {
+        // interrupting a group commit could leave the shards committed at different points, or close the
+        // channel of a writer, so a commit in progress is allowed to finish
+        committer.shutdown();
+        try {
+            if (!committer.awaitTermination(1, TimeUnit.MINUTES)) {
+                System.err.println("Gave up waiting for the running index commit to finish.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (watcher != null) {
+            watcher.close();
+        }
         try {
-            return new FileInputStream(f);
-        } catch (FileNotFoundException e) {
-            throw new RuntimeException("Failed to open book.", e);
+            // the writers commit on close; the lock keeps that last commit whole across the shards
+            synchronized (commitLock) {
+                Map<String, String> commitData = statisticsCommitData();
+                forEachShard(writer -> {
+                    writer.setCommitData(commitData);
+                    writer.close();
+                });
+            }
+        } finally {
+            shardExecutor.shutdown();
+            IOUtils.close(directories);
+        }
+    }
+
+    // -------------------- Default Methods --------------------
+
+    /**
+     * The writers of all shards, in shard order.
+     */
+    final List<IndexWriter> getWriters() {
+        return Collections.unmodifiableList(writers);
+    }
+
+    /**
+     * The writer of the shard the book with the given key belongs to.
+     */
+    final IndexWriter writerFor(String key) {
+        return writers.get(shardOf(key, writers.size()));
+    }
+
+    /**
+     * Indexes the given changed books and removes the deleted ones.
+     */
+    final void applyFileChanges(Collection<Path> changed, Collection<Path> deleted) throws IOException {
+        int count = changed.isEmpty() ? 0 : new BulkIndexingPipeline(this, settings).run(changed);
+        for (Path book : deleted) {
+            String key = bookKey(book);
+            writerFor(key).deleteDocuments(new Term("book_key", key));
         }
+        if (count > 0 || !deleted.isEmpty()) {
+            documentCount.set(countBooks());
+            lastUpdateDate.set(new Date().getTime());
+        }
+    }
+
+    /**
+     * Indexes an uploaded book under the given key, replacing the book already indexed under it. The book
+     * is made durable and counted by {@link #commitUploads()}.
+     */
+    final void indexUpload(String key, InputStream in) throws IOException {
+        indexRecord(in, key);
+    }
+
+    /**
+     * Commits the books added with {@link #indexUpload(String, InputStream)}. The books are counted from
+     * the index, since a re-indexed upload replaces itself.
+     */
+    final void commitUploads() throws IOException {
+        documentCount.set(countBooks());
+        lastUpdateDate.set(new Date().getTime());
+        commit();
+    }
+
+    /**
+     * A stable identifier for a book in the books directory, used to replace or delete its document when
+     * the file changes.
+     */
+    final String bookKey(Path book) {
+        return "file:" + rawDataPath.relativize(book).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * The file a book was indexed from, or null if it was uploaded.
+     */
+    final Path bookPath(String key) {
+        return key.startsWith("file:") ? rawDataPath.resolve(key.substring("file:".length())) : null;
     }
 
-    private void maybeCommit(AtomicInteger count, IndexWriter writer)  {
+    /**
+     * Cheap change detection for a book file based on its size and modification time. Returns an empty
+     * fingerprint if the file can't be read, which never matches an indexed one.
+     */
+    final String fingerprint(Path book) {
         try {
-            if (count.incrementAndGet() % 1000 == 0) {
-                writer.commit();
+            return Files.size(book) + "-" + Files.getLastModifiedTime(book).toMillis();
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    final Document createDocument(Book book, String key, String fingerprint) throws IOException {
+        Document doc = new Document();
+        doc.add(new StringField("book_key", key, Field.Store.YES));
+        doc.add(new BinaryDocValuesField("book_key", new BytesRef(key)));
+        doc.add(new BinaryDocValuesField("fingerprint", new BytesRef(fingerprint)));
+        doc.add(new LongField("created", new Date().getTime(), Field.Store.YES));
+        doc.add(new StringField("author", book.getAuthor(), Field.Store.YES));
+        doc.add(new StringField("title", book.getTitle(), Field.Store.YES));
+        doc.add(new SortedDocValuesField("author", docValue(book.getAuthor())));
+        doc.add(new SortedDocValuesField("title", docValue(book.getTitle())));
+        doc.add(new Field("suggest", book.getTitle() + " " + book.getAuthor(), SUGGEST_TYPE));
+        IndexProfile profile = settings.getIndexProfile();
+        if (profile.isStored() || bookPath(key) == null) {
+            // books without a file can't be read back for snippets, so they are always stored
+            doc.add(new Field("contents", BookParser.readFully(book.getContent()), profile.getStoredContentsType()));
+        } else {
+            doc.add(new Field("contents", book.getContent(), profile.getContentsType()));
+        }
+        return doc;
+    }
+
+    // -------------------- Public Static Methods --------------------
+
+    /**
+     * Whether there is an index at the given path, with any number of shards.
+     */
+    public static boolean indexExists(Path indexPath) throws IOException {
+        return readShardCount(indexPath) != 0;
+    }
+
+    // -------------------- Default Static Methods --------------------
+
+    static String uploadKey(String id) {
+        return "upload:" + id;
+    }
+
+    /**
+     * The shard of a book. {@link String#hashCode()} is specified, so a key maps to the same shard on every
+     * run.
+     */
+    static int shardOf(String key, int shardCount) {
+        return Math.floorMod(key.hashCode(), shardCount);
+    }
+
+    /**
+     * The directory of a shard. A single shard is kept at the top of the index path, so an index that
+     * isn't sharded keeps the layout it had before sharding.
+     */
+    static Path shardPath(Path indexPath, int shard, int shardCount) {
+        return shardCount == 1 ? indexPath : indexPath.resolve("shard-" + shard);
+    }
+
+    /**
+     * The number of shards of the index at the given path, as saved with its last commit, or 0 if there is
+     * no index there. An index committed before the count was saved is counted from its directories.
+     */
+    static int readShardCount(Path indexPath) throws IOException {
+        for (Path path : new Path[] {indexPath, shardPath(indexPath, 0, Integer.MAX_VALUE)}) {
+            if (!Files.isDirectory(path)) {
+                continue;
+            }
+            try (Directory directory = FSDirectory.open(path)) {
+                if (!DirectoryReader.indexExists(directory)) {
+                    continue;
+                }
+                String shardCount = SegmentInfos.readLatestCommit(directory).getUserData().get(SHARD_COUNT);
+                if (shardCount != null) {
+                    return Integer.parseInt(shardCount);
+                }
+            }
+            if (path.equals(indexPath)) {
+                return 1;
+            }
+            int shards = 1;
+            while (Files.isDirectory(shardPath(indexPath, shards, Integer.MAX_VALUE))) {
+                shards++;
+            }
+            return shards;
+        }
+        return 0;
+    }
+
+    // -------------------- Private Methods --------------------
+
+    /**
+     * Runs the task for every shard in parallel and waits until all of them have finished, even when one
+     * fails; the first failure is then rethrown.
+     */
+    private void forEachShard(ShardTask task) throws IOException {
+        if (writers.size() == 1) {
+            task.run(writers.get(0));
+            return;
+        }
+        List<Future<?>> futures = new ArrayList<>();
+        for (IndexWriter writer : writers) {
+            futures.add(shardExecutor.submit(() -> {
+                task.run(writer);
+                return null;
+            }));
+        }
+        IOException failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the shards.");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (failure == null) {
+                    failure = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                } else {
+                    failure.addSuppressed(cause);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Merges every shard down to the configured number of segments, so searches after a full indexing
+     * visit fewer segments. Shards are merged in parallel.
+     */
+    private void forceMerge() throws IOException {
+        int maxSegments = settings.getForceMergeMaxSegments();
+        if (maxSegments > 0) {
+            long startTime = System.currentTimeMillis();
+            forEachShard(writer -> writer.forceMerge(maxSegments));
+            commit();
+            System.err.println("Merged the index down to " + maxSegments + " segments per shard in "
+                    + (System.currentTimeMillis() - startTime) + "ms.");
+        }
+    }
+
+    private void documentAdded() {
+        if (uncommittedDocuments.incrementAndGet() >= settings.getCommitMaxDocuments()) {
+            try {
+                commit();
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to commit the index.", e);
             }
+        }
+    }
+
+    private void commitQuietly() {
+        try {
+            commit();
         } catch (IOException e) {
-            throw new RuntimeException("Failed to index books.", e);
+            System.err.println("Failed to commit the index.");
+            e.printStackTrace(System.err);
         }
     }
 
-    private final IndexWriter createWriter() throws IOException {
-        IndexWriterConfig writerConfig = new IndexWriterConfig(new StandardAnalyzer());
-        writerConfig.setRAMBufferSizeMB(512d);
+    private void fireCommitListeners() {
+        commitListeners.forEach(Runnable::run);
+    }
+
+    private Directory openDirectory(Path indexPath) throws IOException {
+        Directory fsDirectory;
+        switch (settings.getDirectoryType()) {
+            case MMAP:
+                MMapDirectory mmapDirectory = new MMapDirectory(indexPath, settings.getMmapMaxChunkSizeInBytes());
+                mmapDirectory.setPreload(settings.isMmapPreload());
+                fsDirectory = mmapDirectory;
+                break;
+            case NIOFS:
+                fsDirectory = new NIOFSDirectory(indexPath);
+                break;
+            default:
+                fsDirectory = FSDirectory.open(indexPath);
+                break;
+        }
+        Directory directory = settings.isNrtCaching()
+                ? new NRTCachingDirectory(fsDirectory, settings.getNrtCachingMaxMergeSizeMB(), settings.getNrtCachingMaxCachedMB())
+                : fsDirectory;
+        System.err.println("Opened index at " + indexPath + " with " + directory + ".");
+        return directory;
+    }
+
+    private IndexWriter createWriter(Directory directory) throws IOException {
+        PerFieldAnalyzerWrapper analyzer = new PerFieldAnalyzerWrapper(
+                new StandardAnalyzer(),
+                Collections.singletonMap("suggest", new SuggestAnalyzer(true))
+        );
+        IndexWriterConfig writerConfig = new IndexWriterConfig(analyzer);
+        writerConfig.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+        writerConfig.setRAMBufferSizeMB(settings.getRamBufferSizeMB() / settings.getShardCount());
         writerConfig.setCommitOnClose(true);
-        return new IndexWriter(FSDirectory.open(indexPath), writerConfig);
+        writerConfig.setCodec(settings.getIndexProfile().getCodec());
+        // snapshots only need to outlive a backup, so they aren't persisted
+        SnapshotDeletionPolicy snapshotPolicy = new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy());
+        snapshotPolicies.add(snapshotPolicy);
+        writerConfig.setIndexDeletionPolicy(snapshotPolicy);
+        TieredMergePolicy mergePolicy = new TieredMergePolicy();
+        mergePolicy.setMaxMergedSegmentMB(settings.getMaxMergedSegmentMB());
+        mergePolicy.setSegmentsPerTier(settings.getSegmentsPerTier());
+        mergePolicy.setFloorSegmentMB(settings.getFloorSegmentMB());
+        writerConfig.setMergePolicy(mergePolicy);
+
+        ConcurrentMergeScheduler mergeScheduler = new ConcurrentMergeScheduler() {
+            @Override
+            protected void doMerge(IndexWriter writer, MergePolicy.OneMerge merge) throws IOException {
+                metrics.mergeStarted();
+                long startTime = System.nanoTime();
+                try {
+                    super.doMerge(writer, merge);
+                } finally {
+                    metrics.mergeFinished(System.nanoTime() - startTime, merge.totalMaxDoc);
+                }
+            }
+        };
+        int mergeThreads = settings.getMaxMergeThreads();
+        if (mergeThreads > 0) {
+            // let a few merges queue up behind the running ones before indexing threads are stalled
+            mergeScheduler.setMaxMergesAndThreads(mergeThreads + MERGE_BACKLOG, mergeThreads);
+        }
+        writerConfig.setMergeScheduler(mergeScheduler);
+        return new IndexWriter(directory, writerConfig);
     }
 
-    private Document getIndexDocument() throws IOException {
-        DirectoryReader directoryReader = DirectoryReader.open(FSDirectory.open(indexPath));
-        IndexSearcher searcher = new IndexSearcher(directoryReader);
-        ScoreDoc[] hits = searcher.search(new TermQuery(new Term("id", "index_stats")), 1).scoreDocs;
-        if (hits == null || hits.length == 0) {
-            throw new IOException("Failed to find index document.");
-        } else {
-            return searcher.doc(hits[0].doc);
+    /**
+     * Loads the statistics from the user data of the last commit, which is the same in every shard. Indexes
+     * written before the statistics moved there keep them in an {@code id:index_stats} document instead,
+     * which is read once and deleted.
+     */
+    private void loadIndexStatistics() throws IOException {
+        long now = new Date().getTime();
+        IndexWriter writer = writers.get(0);
+        Map<String, String> commitData = writer.getCommitData();
+        if (commitData.containsKey(DOCUMENT_COUNT)) {
+            documentCount.set(Integer.parseInt(commitData.get(DOCUMENT_COUNT)));
+            creationDate.set(Long.parseLong(commitData.get(CREATION_DATE)));
+            lastUpdateDate.set(Long.parseLong(commitData.get(LAST_UPDATE_DATE)));
+            return;
         }
+
+        creationDate.set(now);
+        lastUpdateDate.set(now);
+        Term legacyStatsTerm = new Term("id", "index_stats");
+        try (DirectoryReader reader = DirectoryReader.open(writer, false)) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            ScoreDoc[] hits = searcher.search(new TermQuery(legacyStatsTerm), 1).scoreDocs;
+            if (hits.length > 0) {
+                Document indexStats = searcher.doc(hits[0].doc);
+                creationDate.set(Long.parseLong(indexStats.get(CREATION_DATE)));
+                lastUpdateDate.set(Long.parseLong(indexStats.get(LAST_UPDATE_DATE)));
+                writer.deleteDocuments(legacyStatsTerm);
+            }
+        }
+        documentCount.set(countBooks());
     }
 
-    private void updateIndexStatistics(IndexWriter writer) throws IOException {
-        Document indexStats = getIndexDocument();
-        int documentCount = Integer.valueOf(indexStats.get("document_count"));
-        indexStats.removeField("document_count");
-        indexStats.add(new LongField("document_count", documentCount + 1, Field.Store.YES));
-        indexStats.removeField("last_update_date");
-        indexStats.add(new LongField("last_update_date", new Date().getTime(), Field.Store.YES));
-        writer.updateDocument(new Term("id", "index_stats"), indexStats);
+    private Map<String, String> statisticsCommitData() {
+        Map<String, String> commitData = new HashMap<>();
+        commitData.put(DOCUMENT_COUNT, Integer.toString(documentCount.get()));
+        commitData.put(CREATION_DATE, Long.toString(creationDate.get()));
+        commitData.put(LAST_UPDATE_DATE, Long.toString(lastUpdateDate.get()));
+        commitData.put(SHARD_COUNT, Integer.toString(writers.size()));
+        return commitData;
     }
 
-    private void createIndexDocument(AtomicInteger count, Date creationDate, Date updateDate, IndexWriter writer) throws IOException {
-        Document doc = new Document();
-        doc.add(new StringField("id", "index_stats", Field.Store.YES));
-        doc.add(new LongField("creation_date", creationDate.getTime(), Field.Store.YES));
-        doc.add(new LongField("last_update_date", updateDate.getTime(), Field.Store.YES));
-        doc.add(new LongField("document_count", count.get(), Field.Store.YES));
-        writer.addDocument(doc);
+    private static BytesRef docValue(String value) {
+        return new BytesRef(value.length() > MAX_DOC_VALUE_LENGTH ? value.substring(0, MAX_DOC_VALUE_LENGTH) : value);
     }
 
-    private void indexRecord(InputStream in, IndexWriter writer) {
-        Document doc = new Document();
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in))) {
-            Book book = BookParser.parse(reader);
-            doc.add(new LongField("created", new Date().getTime(), Field.Store.YES));
-            doc.add(new StringField("author", book.getAuthor(), Field.Store.YES));
-            doc.add(new StringField("title", book.getTitle(), Field.Store.YES));
-            doc.add(new TermVectorEnabledTextField("contents", book.getContent()));
-            writer.addDocument(doc);
-        } catch (IOException e) {
-            throw new RuntimeException("Failed add book to the index.", e);
+    /**
+     * Reads the key and fingerprint of every book that was indexed from the books directory, including
+     * changes that have not been committed yet. Doc values are used so no stored fields are decompressed.
+     */
+    private Map<String, String> readFileFingerprints() throws IOException {
+        Map<String, String> fingerprints = new ConcurrentHashMap<>();
+        forEachShard(writer -> readFileFingerprints(writer, fingerprints));
+        return fingerprints;
+    }
+
+    private void readFileFingerprints(IndexWriter writer, Map<String, String> fingerprints) throws IOException {
+        try (DirectoryReader reader = DirectoryReader.open(writer, true)) {
+            for (LeafReaderContext context : reader.leaves()) {
+                LeafReader leaf = context.reader();
+                BinaryDocValues keys = leaf.getBinaryDocValues("book_key");
+                BinaryDocValues fingerprintValues = leaf.getBinaryDocValues("fingerprint");
+                if (keys == null || fingerprintValues == null) {
+                    continue;
+                }
+                Bits liveDocs = leaf.getLiveDocs();
+                for (int doc = 0; doc < leaf.maxDoc(); doc++) {
+                    if (liveDocs == null || liveDocs.get(doc)) {
+                        String key = keys.get(doc).utf8ToString();
+                        if (key.startsWith("file:")) {
+                            fingerprints.put(key, fingerprintValues.get(doc).utf8ToString());
+                        }
+                    }
+                }
+            }
         }
     }
 
+    private int countBooks() throws IOException {
+        AtomicInteger count = new AtomicInteger(0);
+        forEachShard(writer -> {
+            try (DirectoryReader reader = DirectoryReader.open(writer, true)) {
+                count.addAndGet(reader.numDocs());
+            }
+        });
+        return count.get();
+    }
+
+    private void indexRecord(InputStream in, String key) throws IOException {
+        CountingInputStream countingIn = new CountingInputStream(in);
+        try (Reader reader = new BufferedReader(new InputStreamReader(countingIn, StandardCharsets.UTF_8))) {
+            writerFor(key).updateDocument(new Term("book_key", key), createDocument(BookParser.parse(reader), key, ""));
+            metrics.documentIndexed(countingIn.count);
+        }
+    }
+
+    // -------------------- Inner Classes --------------------
+
+    private interface ShardTask {
+        void run(IndexWriter writer) throws IOException;
+    }
 
+    private static final class CountingInputStream extends FilterInputStream {
+        private long count = 0L;
 
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read != -1) {
+                count++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
 }
@@ -1,51 +1,84 @@
 package com.demo.lucene;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
 
 /**
  * @author Scott Faria
  */
 final class BookParser {
 
+    // -------------------- Private Statics --------------------
+
+    private static final int BUFFER_SIZE = 8192;
+
     // -------------------- Default Static Methods --------------------
 
     static boolean isBook(File dir, String name) {
         return !new File(dir, name).isDirectory() && name.endsWith("txt");
     }
 
-    static Book parse(BufferedReader reader) throws IOException {
+    /**
+     * Parses the header of a book and returns it with the rest of the reader as its body. Nothing past
+     * the header is read, so the caller decides whether to stream the body into the index or to
+     * {@link #readFully(Reader) read it} into memory. The returned book is only valid while the reader is
+     * open.
+     */
+    static Book parse(Reader reader) throws IOException {
         String author = null;
         String title = null;
 
-        boolean hitEndHeader = false;
-        StringBuilder sb = new StringBuilder();
-        String line;
-        while ((line = reader.readLine()) != null) {
-            if (!line.trim().isEmpty()) {
-                if (!hitEndHeader) {
-                    String trimmedLine = line.trim();
-                    if (trimmedLine.startsWith("***") && trimmedLine.endsWith("***")) {
-                        hitEndHeader = true;
-                    } else {
-                        if (trimmedLine.toLowerCase().startsWith("author:")) {
-                            author = parseHeaderAttribute(trimmedLine);
-                        } else if (trimmedLine.toLowerCase().startsWith("title:")) {
-                            title = parseHeaderAttribute(trimmedLine);
-                        }
-                    }
-                } else {
-                    sb.append(line.toLowerCase().trim()).append(" ");
+        StringBuilder line = new StringBuilder(128);
+        while (readLine(reader, line)) {
+            String trimmedLine = line.toString().trim();
+            if (!trimmedLine.isEmpty()) {
+                if (trimmedLine.startsWith("***") && trimmedLine.endsWith("***")) {
+                    break;
+                } else if (startsWithIgnoreCase(trimmedLine, "author:")) {
+                    author = parseHeaderAttribute(trimmedLine);
+                } else if (startsWithIgnoreCase(trimmedLine, "title:")) {
+                    title = parseHeaderAttribute(trimmedLine);
                 }
             }
         }
 
-        return new Book(author, title, sb.toString());
+        return new Book(author, title, reader);
+    }
+
+    static String readFully(Reader reader) throws IOException {
+        StringBuilder sb = new StringBuilder(BUFFER_SIZE);
+        char[] buffer = new char[BUFFER_SIZE];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            sb.append(buffer, 0, read);
+        }
+        return sb.toString();
     }
 
     // -------------------- Private Static Methods --------------------
 
+    /**
+     * Reads the next line into the given buffer, reusing it between calls. Returns false once the reader
+     * is exhausted and nothing was read.
+     */
+    private static boolean readLine(Reader reader, StringBuilder line) throws IOException {
+        line.setLength(0);
+        int c;
+        while ((c = reader.read()) != -1) {
+            if (c == '\n') {
+                return true;
+            } else if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return line.length() > 0;
+    }
+
+    private static boolean startsWithIgnoreCase(String line, String prefix) {
+        return line.regionMatches(true, 0, prefix, 0, prefix.length());
+    }
+
     private static String parseHeaderAttribute(String line) {
         String[] split = line.split(":");
         if (split.length == 2) {
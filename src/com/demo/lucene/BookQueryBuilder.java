@@ -0,0 +1,242 @@
+package com.demo.lucene;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MultiTermQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.AttributeSource;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+/**
+ * Turns the text of a search into a query on the book contents. The text is run through the same analyzer
+ * that indexed the books, so the terms of the query are exactly the terms in the index, and no query ever
+ * starts with a wildcard. The only term expansion is the trailing prefix of {@link SearchMode#PREFIX},
+ * which needs a minimum length, only looks at a bounded number of matching terms, and is capped to the ones
+ * among them that occur in the most books.
+ */
+final class BookQueryBuilder {
+
+    // -------------------- Private Statics --------------------
+
+    private static final String FIELD = "contents";
+    private static final int MAX_QUERY_LENGTH = 256;
+    private static final int MAX_QUERY_TERMS = 16;
+    private static final int MIN_PREFIX_LENGTH = 2;
+    private static final int MAX_PREFIX_EXPANSIONS = 50;
+    private static final int MAX_PREFIX_SCANNED_TERMS = 1024;
+
+    // -------------------- Private Variables --------------------
+
+    private final Analyzer analyzer;
+
+    // -------------------- Constructors --------------------
+
+    BookQueryBuilder(Analyzer analyzer) {
+        this.analyzer = analyzer;
+    }
+
+    // -------------------- Default Methods --------------------
+
+    /**
+     * Builds the query for the given text, or returns null if nothing in the text can be searched for
+     * (e.g. it only contains stop words).
+     *
+     * @throws IllegalArgumentException if the text is too long or has too many terms
+     */
+    final Query build(String text, SearchMode mode) throws IOException {
+        if (text.length() > MAX_QUERY_LENGTH) {
+            throw new IllegalArgumentException("Searches are limited to " + MAX_QUERY_LENGTH + " characters.");
+        }
+
+        String prefix = null;
+        String completeText = text;
+        if (mode == SearchMode.PREFIX && !text.isEmpty() && !Character.isWhitespace(text.charAt(text.length() - 1))) {
+            int lastWordStart = lastWordStart(text);
+            completeText = text.substring(0, lastWordStart);
+            prefix = toPrefix(text.substring(lastWordStart));
+        }
+
+        List<AnalyzedTerm> terms = analyze(completeText);
+        if (terms.size() + (prefix == null ? 0 : 1) > MAX_QUERY_TERMS) {
+            throw new IllegalArgumentException("Searches are limited to " + MAX_QUERY_TERMS + " words.");
+        }
+
+        switch (mode) {
+            case PHRASE:
+                return phraseQuery(terms);
+            case ALL_TERMS:
+                return allTermsQuery(terms, null);
+            case PREFIX:
+                return allTermsQuery(terms, prefix);
+            default:
+                throw new IllegalArgumentException("Unsupported search mode " + mode + ".");
+        }
+    }
+
+    // -------------------- Private Methods --------------------
+
+    private Query phraseQuery(List<AnalyzedTerm> terms) {
+        if (terms.isEmpty()) {
+            return null;
+        } else if (terms.size() == 1) {
+            return new TermQuery(terms.get(0).term);
+        }
+        PhraseQuery.Builder builder = new PhraseQuery.Builder();
+        for (AnalyzedTerm term : terms) {
+            builder.add(term.term, term.position);
+        }
+        return builder.build();
+    }
+
+    private Query allTermsQuery(List<AnalyzedTerm> terms, String prefix) {
+        List<Query> clauses = new ArrayList<>();
+        for (AnalyzedTerm term : terms) {
+            clauses.add(new TermQuery(term.term));
+        }
+        if (prefix != null && prefix.length() >= MIN_PREFIX_LENGTH) {
+            PrefixQuery prefixQuery = new PrefixQuery(new Term(FIELD, prefix));
+            prefixQuery.setRewriteMethod(new MostFrequentTermsRewrite(MAX_PREFIX_EXPANSIONS, MAX_PREFIX_SCANNED_TERMS));
+            clauses.add(prefixQuery);
+        }
+
+        if (clauses.isEmpty()) {
+            return null;
+        } else if (clauses.size() == 1) {
+            return clauses.get(0);
+        }
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        clauses.forEach(clause -> builder.add(clause, BooleanClause.Occur.MUST));
+        return builder.build();
+    }
+
+    private List<AnalyzedTerm> analyze(String text) throws IOException {
+        List<AnalyzedTerm> terms = new ArrayList<>();
+        try (TokenStream tokenStream = analyzer.tokenStream(FIELD, text)) {
+            CharTermAttribute termAttribute = tokenStream.addAttribute(CharTermAttribute.class);
+            PositionIncrementAttribute positionAttribute = tokenStream.addAttribute(PositionIncrementAttribute.class);
+            tokenStream.reset();
+            int position = -1;
+            while (tokenStream.incrementToken()) {
+                position += positionAttribute.getPositionIncrement();
+                terms.add(new AnalyzedTerm(new Term(FIELD, termAttribute.toString()), position));
+                if (terms.size() > MAX_QUERY_TERMS) {
+                    break;
+                }
+            }
+            tokenStream.end();
+        }
+        return terms;
+    }
+
+    /**
+     * The prefix is analyzed like any other word, except that a partial word that happens to be a stop word
+     * (e.g. "an" on the way to "ancient") is kept as typed.
+     */
+    private String toPrefix(String word) throws IOException {
+        List<AnalyzedTerm> terms = analyze(word);
+        if (!terms.isEmpty()) {
+            return terms.get(terms.size() - 1).term.text();
+        }
+        String lowerCased = word.toLowerCase(Locale.ROOT);
+        return lowerCased.chars().allMatch(Character::isLetterOrDigit) ? lowerCased : null;
+    }
+
+    // -------------------- Private Static Methods --------------------
+
+    private static int lastWordStart(String text) {
+        int index = text.length();
+        while (index > 0 && !Character.isWhitespace(text.charAt(index - 1))) {
+            index--;
+        }
+        return index;
+    }
+
+    // -------------------- Inner Classes --------------------
+
+    private static final class AnalyzedTerm {
+        private final Term term;
+        private final int position;
+
+        private AnalyzedTerm(Term term, int position) {
+            this.term = term;
+            this.position = position;
+        }
+    }
+
+    /**
+     * Expands a multi-term query into its most frequent terms. Lucene's top-terms rewrites rank terms by
+     * boost, which is the same for every term of a prefix, so they keep the alphabetically first terms and
+     * drop common completions; this one ranks by the number of books each term occurs in, with ties going
+     * to the term that sorts first. Only the kept terms are held in memory. A short prefix can match a large
+     * part of the terms dictionary, so the scan stops after a fixed number of terms and the rewrite costs
+     * the same however many terms match.
+     */
+    private static final class MostFrequentTermsRewrite extends MultiTermQuery.RewriteMethod {
+
+        private final int maxTerms;
+        private final int maxScannedTerms;
+
+        private MostFrequentTermsRewrite(int maxTerms, int maxScannedTerms) {
+            this.maxTerms = maxTerms;
+            this.maxScannedTerms = maxScannedTerms;
+        }
+
+        @Override
+        public Query rewrite(IndexReader reader, MultiTermQuery query) throws IOException {
+            // the least frequent kept term is at the head, ready to be replaced
+            PriorityQueue<TermFrequency> top = new PriorityQueue<>(maxTerms, (a, b) -> a.docFreq != b.docFreq
+                    ? Integer.compare(a.docFreq, b.docFreq)
+                    : b.term.compareTo(a.term));
+            Terms terms = MultiFields.getTerms(reader, query.getField());
+            if (terms != null) {
+                TermsEnum termsEnum = getTermsEnum(query, terms, new AttributeSource());
+                BytesRef term;
+                int scanned = 0;
+                while (scanned++ < maxScannedTerms && (term = termsEnum.next()) != null) {
+                    int docFreq = termsEnum.docFreq();
+                    if (top.size() < maxTerms) {
+                        top.add(new TermFrequency(BytesRef.deepCopyOf(term), docFreq));
+                    } else if (docFreq > top.peek().docFreq) {
+                        top.poll();
+                        top.add(new TermFrequency(BytesRef.deepCopyOf(term), docFreq));
+                    }
+                }
+            }
+
+            BooleanQuery.Builder builder = new BooleanQuery.Builder();
+            builder.setDisableCoord(true);
+            for (TermFrequency termFrequency : top) {
+                builder.add(new TermQuery(new Term(query.getField(), termFrequency.term)), BooleanClause.Occur.SHOULD);
+            }
+            return builder.build();
+        }
+    }
+
+    private static final class TermFrequency {
+        private final BytesRef term;
+        private final int docFreq;
+
+        private TermFrequency(BytesRef term, int docFreq) {
+            this.term = term;
+            this.docFreq = docFreq;
+        }
+    }
+}
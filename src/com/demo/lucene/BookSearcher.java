@@ -1,100 +1,666 @@
 package com.demo.lucene;
 
+import com.demo.web.IndexSizeReport;
 import com.demo.web.IndexStats;
+import com.demo.web.QueryCacheStats;
+import com.demo.web.SearchPage;
 import com.demo.web.SearchResult;
+import com.demo.web.Suggestion;
+import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.queryparser.classic.ParseException;
-import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SegmentInfo;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ReferenceManager;
 import org.apache.lucene.search.ScoreDoc;
-import org.apache.lucene.search.highlight.*;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.highlight.InvalidTokenOffsetsException;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.util.IOUtils;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.nio.file.Path;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
+ * Searches the books indexed by the {@link BookIndexer}. Every shard has its own near real-time searcher;
+ * a search runs on all shards in parallel and the best hits of each are merged by score. Scores use the
+ * term statistics of each shard, which are close to those of the whole index as long as books are spread
+ * evenly.
+ *
  * @author Scott Faria <scott.faria@gmail.com>
  */
-public final class BookSearcher {
+public final class BookSearcher implements Closeable {
 
     // -------------------- Private Statics --------------------
 
-    private static final int MAX_HITS = 50;
+    private static final int MAX_PAGE_SIZE = 200;
+    private static final int MAX_SUGGESTIONS = 10;
+    private static final int MAX_SUGGEST_LENGTH = 64;
+    private static final int SEGMENT_QUEUE_PER_THREAD = 16;
 
     // -------------------- Private Variables --------------------
 
-    private final QueryParser queryParser;
-    private final Directory directory;
+    private final BookQueryBuilder queryBuilder;
+    private final Analyzer suggestAnalyzer = new SuggestAnalyzer(false);
+    private final BookHighlighter highlighter;
+    private final DisplayFieldsLoader displayFieldsLoader;
+    private final BookIndexer indexer;
+    private final List<SearcherManager> searcherManagers = new ArrayList<>();
+    private final ExecutorService shardSearchers;
+    private final ExecutorService segmentSearchers;
+    private final ScheduledExecutorService refresher;
+    private final QueryResultCache<SearchPage> resultCache;
+    private final AtomicInteger openReaders = new AtomicInteger(0);
+    private final Metrics metrics;
+    private final SlowQueryLog slowQueryLog;
+    private final IndexProfile indexProfile;
 
     // -------------------- Constructor --------------------
 
-    public BookSearcher(Path indexPath) throws IOException {
-        this.directory = FSDirectory.open(indexPath);
-        this.queryParser = new QueryParser("contents", new StandardAnalyzer());
-        this.queryParser.setAllowLeadingWildcard(true);
+    public BookSearcher(BookIndexer indexer, IndexSettings settings) throws IOException {
+        this.indexer = indexer;
+        this.indexProfile = settings.getIndexProfile();
+        this.segmentSearchers = createSegmentSearchers(settings.getSegmentSearchThreads());
+        SearcherFactory searcherFactory = new SearcherFactory() {
+            @Override
+            public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) throws IOException {
+                openReaders.incrementAndGet();
+                reader.addReaderClosedListener(closed -> openReaders.decrementAndGet());
+                return new IndexSearcher(reader, segmentSearchers);
+            }
+        };
+        ReferenceManager.RefreshListener clearCacheOnRefresh = new ReferenceManager.RefreshListener() {
+            @Override
+            public void beforeRefresh() {
+            }
+
+            @Override
+            public void afterRefresh(boolean didRefresh) {
+                if (didRefresh) {
+                    resultCache.clear();
+                }
+            }
+        };
+        for (IndexWriter writer : indexer.getWriters()) {
+            SearcherManager searcherManager = new SearcherManager(writer, true, searcherFactory);
+            searcherManager.addListener(clearCacheOnRefresh);
+            searcherManagers.add(searcherManager);
+        }
+        AtomicInteger searchThreads = new AtomicInteger(0);
+        this.shardSearchers = searcherManagers.size() == 1 ? null : Executors.newFixedThreadPool(settings.getSearchThreads(), r -> {
+            Thread thread = new Thread(r, "shard-search-" + searchThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.queryBuilder = new BookQueryBuilder(new StandardAnalyzer());
+        this.highlighter = new BookHighlighter(settings, new BookContents(indexer));
+        this.displayFieldsLoader = new DisplayFieldsLoader(settings.isDisplayFieldsFromDocValues());
+        this.resultCache = new QueryResultCache<>(
+                settings.getQueryCacheMaxEntries(),
+                settings.getQueryCacheMaxSizeInBytes(),
+                settings.getQueryCacheTtlMillis(),
+                SearchPage::estimatedSizeInBytes
+        );
+        this.slowQueryLog = settings.getSlowQueryThresholdMillis() > 0 ? new SlowQueryLog(settings, this::rewriteForLog) : null;
+        this.metrics = indexer.getMetrics();
+        if (slowQueryLog != null) {
+            metrics.addGauge("slow_query_log_dropped", "Slow searches that were not logged because the log fell behind.", slowQueryLog::getDropped);
+        }
+        metrics.addGauge("index_open_readers", "Index readers that are open, including readers still used by in-flight searches.", openReaders::get);
+        metrics.addGauge("index_segments", "Segments in the reader searches currently use.", this::countSegments);
+        metrics.addGauge("index_documents", "Books in the index.", indexer::getDocumentCount);
+
+        long refreshInterval = settings.getRefreshIntervalMillis();
+        this.refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "searcher-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.refresher.scheduleWithFixedDelay(this::maybeRefresh, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
     }
 
     // -------------------- Public Methods --------------------
 
-    public final IndexStats getIndexStats() throws ParseException, IOException {
-        Query query = queryParser.parse("id:index_stats");
-        IndexSearcher searcher = createSearcher();
-        ScoreDoc[] hits = searcher.search(query, 1).scoreDocs;
-        if (hits.length != 1) {
-            throw new ParseException("Failed to get index stats from lucene.");
+    /**
+     * Returns the statistics kept by the indexer. Nothing is read from the index.
+     */
+    public final IndexStats getIndexStats() {
+        return new IndexStats(indexer.getDocumentCount(), indexer.getLastUpdateDate(), indexer.getCreationDate(),
+                indexer.getIngestionLagMillis(), indexer.getPendingBookChanges());
+    }
+
+    /**
+     * Searches the book contents for the given text, see {@link BookQueryBuilder} for how the text is
+     * interpreted in each mode. Pages after the first are requested with the cursor returned with the
+     * previous page, see {@link SearchCursor}. Results are served from the result cache when the same page
+     * has already been requested against the current version of the index.
+     *
+     * @param pageSize number of results per page, at most {@value #MAX_PAGE_SIZE}
+     * @param cursor the cursor of the page to return, or null for the first page
+     * @param fields the fields to fill in on each result; the others are left null
+     * @throws IllegalArgumentException if the text is rejected by the query builder, or the page size or
+     * cursor are invalid
+     */
+    public final SearchPage search(String searchText, SearchMode mode, int pageSize, String cursor, Set<ResultField> fields) throws IOException, InvalidTokenOffsetsException {
+        SearchTrace trace = new SearchTrace();
+        PageCollector collector = new PageCollector();
+        search(searchText, mode, pageSize, cursor, fields, trace, collector);
+        finishSearch(trace);
+        return collector.toPage(trace.isPartial());
+    }
+
+    /**
+     * Like {@link #search(String, SearchMode, int, String, Set)}, but hands each result to the listener as
+     * soon as it is ready instead of returning the whole page, and adds the time spent in each stage of the
+     * search to the trace. The caller adds the time it spends writing out the results and then passes the
+     * trace to {@link #finishSearch(SearchTrace)}.
+     * <p>
+     * When the trace has a deadline, collecting the hits and highlighting them stop once it has passed, and
+     * the results found so far are passed on with the trace marked as partial. Partial pages are not
+     * cached.
+     *
+     * @throws RejectedExecutionException if the deadline passed before the search started
+     */
+    public final void search(String searchText, SearchMode mode, int pageSize, String cursor, Set<ResultField> fields, SearchTrace trace, SearchResultListener listener) throws IOException, InvalidTokenOffsetsException {
+        if (trace.isPastDeadline()) {
+            throw new RejectedExecutionException("The search timed out before it could start, please try again later.");
+        }
+        long parseStart = System.nanoTime();
+        trace.setSearch(searchText, mode);
+        if (pageSize <= 0 || pageSize > MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + MAX_PAGE_SIZE + ".");
+        }
+        ScoreDoc after = cursor == null ? null : SearchCursor.decode(cursor);
+        Query query = queryBuilder.build(searchText, mode);
+        trace.addSince(SearchStage.PARSE, parseStart);
+        trace.setQuery(query);
+        if (query == null) {
+            listener.onPage(0, null);
+            return;
+        }
+
+        IndexSearcher[] searchers = acquireSearchers();
+        try {
+            if (after != null && after.shardIndex >= searchers.length) {
+                throw new IllegalArgumentException("Invalid search cursor '" + cursor + "'.");
+            }
+            String cacheKey = QueryResultCache.normalize(searchText, mode) + "|" + pageSize + "|" + fields
+                    + "|" + (cursor == null ? "" : cursor);
+            long indexVersion = indexVersion(searchers);
+            SearchPage page = resultCache.get(cacheKey, indexVersion);
+            if (page != null) {
+                trace.setResult(page.getTotalHits(), true);
+                listener.onPage(page.getTotalHits(), page.getNextCursor());
+                for (SearchResult result : page.getResults()) {
+                    listener.onResult(result);
+                }
+                return;
+            }
+
+            page = search(query, searchers, pageSize, after, fields, trace, listener);
+            if (page != null && !page.isPartial()) {
+                resultCache.put(cacheKey, indexVersion, page);
+            }
+        } finally {
+            releaseSearchers(searchers);
+        }
+    }
+
+    /**
+     * Records a search that has been answered into the metrics and, if it was slow, the slow query log.
+     */
+    public final void finishSearch(SearchTrace trace) {
+        trace.finish();
+        metrics.recordSearch(trace);
+        if (slowQueryLog != null) {
+            slowQueryLog.record(trace);
         }
-        Document doc = searcher.doc(hits[0].doc);
-        long createdDate = Long.valueOf(doc.get("creation_date"));
-        long lastUpdateDate = Long.valueOf(doc.get("last_update_date"));
-        int documentCount = Integer.valueOf(doc.get("document_count"));
-        return new IndexStats(documentCount, lastUpdateDate, createdDate);
     }
 
-    public final Set<SearchResult> search(String searchText) throws ParseException, IOException, InvalidTokenOffsetsException {
-        String queryText = "\"*" + QueryParser.escape(searchText.toLowerCase()) + "*\"";
-        Query query = queryParser.parse(queryText);
-        IndexSearcher searcher = createSearcher();
-        ScoreDoc[] hits = searcher.search(query, MAX_HITS).scoreDocs;
-        Highlighter highlighter = new Highlighter(new QueryScorer(query));
+    public final QueryCacheStats getQueryCacheStats() {
+        return new QueryCacheStats(
+                resultCache.getHits(),
+                resultCache.getMisses(),
+                resultCache.getEvictions(),
+                resultCache.getEntryCount(),
+                resultCache.getSizeInBytes()
+        );
+    }
 
-        Set<SearchResult> results = new LinkedHashSet<>();
-        for (ScoreDoc hit : hits) {
-            int docId = hit.doc;
-            Document doc = searcher.doc(docId);
-            TokenStream tokenStream = getTokenStream(docId, searcher);
-            TextFragment[] fragments = highlighter.getBestTextFragments(tokenStream, doc.get("contents"), true, 1);
-            String context = fragments.length == 1 ? fragments[0].toString() : "";
-            if (!context.trim().isEmpty()) {
-                String author = doc.get("author");
-                String title = doc.get("title");
-                results.add(new SearchResult(author, title, context));
+    /**
+     * Reports the size of the index the searches currently use, by part of the index and by field. Lucene
+     * has no per-field disk usage, so the bytes are attributed by file type and the per-field numbers are
+     * term statistics.
+     */
+    public final IndexSizeReport getIndexSizeReport() throws IOException {
+        IndexSearcher[] searchers = acquireSearchers();
+        try {
+            List<LeafReaderContext> leaves = new ArrayList<>();
+            for (IndexSearcher searcher : searchers) {
+                leaves.addAll(searcher.getIndexReader().leaves());
+            }
+            IndexSizeReport report = new IndexSizeReport(indexProfile.name(), leaves.size());
+            Map<String, IndexSizeReport.FieldSize> fields = new TreeMap<>();
+            for (LeafReaderContext leaf : leaves) {
+                SegmentReader segmentReader = (SegmentReader) leaf.reader();
+                SegmentInfo info = segmentReader.getSegmentInfo().info;
+                Directory directory = segmentReader.directory();
+                for (String file : segmentReader.getSegmentInfo().files()) {
+                    String part = indexPart(file);
+                    if (!part.equals("compound")) {
+                        report.addBytes(part, directory.fileLength(file));
+                    }
+                }
+                if (info.getUseCompoundFile()) {
+                    // small segments are packed into a compound file, report the parts inside it instead
+                    try (Directory compound = info.getCodec().compoundFormat().getCompoundReader(directory, info, IOContext.READ)) {
+                        for (String file : compound.listAll()) {
+                            report.addBytes(indexPart(file), compound.fileLength(file));
+                        }
+                    }
+                }
+
+                for (FieldInfo fieldInfo : segmentReader.getFieldInfos()) {
+                    IndexSizeReport.FieldSize field = fields.computeIfAbsent(fieldInfo.name, name -> new IndexSizeReport.FieldSize(
+                            name, fieldInfo.getIndexOptions().name(), fieldInfo.hasVectors(), fieldInfo.getDocValuesType().name()));
+                    Terms terms = segmentReader.terms(fieldInfo.name);
+                    if (terms != null) {
+                        field.addTerms(terms.size(), terms.getSumDocFreq(), terms.getSumTotalTermFreq());
+                    }
+                }
             }
+            fields.values().forEach(report::addField);
+            return report;
+        } finally {
+            releaseSearchers(searchers);
+        }
+    }
+
+    /**
+     * Suggests books whose title or author contains words starting with each of the words typed so far.
+     * Every typed word is looked up as a single term in the edge n-gram {@code suggest} field, so the cost
+     * doesn't depend on how many words in the index share the prefix.
+     */
+    public final Set<Suggestion> suggest(String text) throws IOException {
+        Set<Suggestion> suggestions = new LinkedHashSet<>();
+        if (text.length() > MAX_SUGGEST_LENGTH) {
+            return suggestions;
+        }
+        Query query = buildSuggestQuery(text);
+        if (query == null) {
+            return suggestions;
+        }
+
+        IndexSearcher[] searchers = acquireSearchers();
+        try {
+            for (ScoreDoc hit : searchShards(searchers, query, MAX_SUGGESTIONS, null, null).scoreDocs) {
+                Document doc = displayFieldsLoader.load(searchers[hit.shardIndex].getIndexReader(), hit.doc);
+                suggestions.add(new Suggestion(doc.get("author"), doc.get("title")));
+            }
+            return suggestions;
+        } finally {
+            releaseSearchers(searchers);
+        }
+    }
+
+    /**
+     * Reopens the searcher of every shard the indexer has added or committed changes to since it was last
+     * opened, including changes that have not been committed yet. Searches that are in flight keep using the
+     * readers they acquired; each is closed once the last of them releases it.
+     */
+    public final void maybeRefresh() {
+        for (SearcherManager searcherManager : searcherManagers) {
+            try {
+                searcherManager.maybeRefresh();
+            } catch (IOException e) {
+                System.err.println("Failed to refresh the index searcher.");
+                e.printStackTrace(System.err);
+            }
+        }
+    }
+
+    // -------------------- Overridden Methods --------------------
+
+    @Override
+    public final void close() throws IOException {
+        refresher.shutdownNow();
+        if (shardSearchers != null) {
+            shardSearchers.shutdownNow();
+        }
+        IOUtils.close(searcherManagers);
+        if (segmentSearchers != null) {
+            segmentSearchers.shutdownNow();
+        }
+        if (slowQueryLog != null) {
+            slowQueryLog.close();
         }
-        return results;
     }
 
     // -------------------- Private Methods --------------------
 
-    private IndexSearcher createSearcher() throws IOException {
-        DirectoryReader directoryReader = DirectoryReader.open(directory);
-        return new IndexSearcher(directoryReader);
+    /**
+     * Collects one page of hits for the query, fills in the requested fields and hands each result to the
+     * listener. Every hit is passed on, including hits without a snippet. Author and title come from the
+     * {@link DisplayFieldsLoader}, so the contents are only read by the highlighter, and only when the
+     * context was requested. The results are only kept, and returned as a page, when the result cache is
+     * enabled; otherwise null is returned. Running out of time, while collecting or while highlighting,
+     * marks the trace as partial. The highlight budget only starts once the hits have been collected, so a
+     * slow query doesn't lose its snippets to collection time.
+     */
+    private SearchPage search(Query query, IndexSearcher[] searchers, int pageSize, ScoreDoc after, Set<ResultField> fields, SearchTrace trace, SearchResultListener listener) throws IOException, InvalidTokenOffsetsException {
+        long searchStart = System.nanoTime();
+        // one hit more than the page tells whether there is a next page, on any page
+        TopDocs topDocs = searchShards(searchers, query, pageSize + 1, after, trace);
+        ScoreDoc[] hits = topDocs.scoreDocs;
+        String nextCursor = null;
+        if (hits.length > pageSize) {
+            hits = Arrays.copyOf(hits, pageSize);
+            nextCursor = SearchCursor.encode(hits[pageSize - 1]);
+        }
+        trace.addSince(SearchStage.SEARCH, searchStart);
+
+        trace.setResult(topDocs.totalHits, false);
+        listener.onPage(topDocs.totalHits, nextCursor);
+
+        BookHighlighter.Request highlightRequest = null;
+        if (fields.contains(ResultField.CONTEXT) && hits.length > 0) {
+            long highlightStart = System.nanoTime();
+            highlightRequest = highlighter.newRequest(query, searchers, trace);
+            trace.addSince(SearchStage.HIGHLIGHT, highlightStart);
+        }
+        boolean loadDisplayFields = fields.contains(ResultField.AUTHOR) || fields.contains(ResultField.TITLE);
+        List<SearchResult> results = resultCache.isEnabled() ? new ArrayList<>(hits.length) : null;
+        for (ScoreDoc hit : hits) {
+            String context = null;
+            if (highlightRequest != null) {
+                long highlightStart = System.nanoTime();
+                context = highlightRequest.highlight(hit);
+                context = context == null ? "" : context;
+                trace.addSince(SearchStage.HIGHLIGHT, highlightStart);
+            }
+            Document doc = null;
+            if (loadDisplayFields) {
+                long loadStart = System.nanoTime();
+                doc = displayFieldsLoader.load(searchers[hit.shardIndex].getIndexReader(), hit.doc);
+                trace.addSince(SearchStage.LOAD_FIELDS, loadStart);
+            }
+
+            SearchResult result = new SearchResult(
+                    fields.contains(ResultField.AUTHOR) ? doc.get("author") : null,
+                    fields.contains(ResultField.TITLE) ? doc.get("title") : null,
+                    context
+            );
+            listener.onResult(result);
+            if (results != null) {
+                results.add(result);
+            }
+        }
+
+        if (highlightRequest != null && highlightRequest.isBudgetExhausted()) {
+            trace.setPartial();
+        }
+        return results == null ? null : new SearchPage(Collections.unmodifiableList(results), topDocs.totalHits, nextCursor, trace.isPartial());
     }
 
-    @SuppressWarnings("deprecation")
-    private TokenStream getTokenStream(int docId, IndexSearcher searcher) throws IOException {
-        return TokenSources.getAnyTokenStream(
-                searcher.getIndexReader(),
-                docId,
-                "contents",
-                new StandardAnalyzer()
-        );
+    /**
+     * Runs the query on every shard, in parallel when there are several, and merges the best hits by
+     * score. The shard index of each merged hit is the index of the searcher it came from. If the trace has
+     * a deadline, each shard stops collecting once it has passed and the trace is marked as partial.
+     *
+     * @param trace the trace of the search, or null to search without a deadline
+     */
+    private TopDocs searchShards(IndexSearcher[] searchers, Query query, int count, ScoreDoc after, SearchTrace trace) throws IOException {
+        TopDocs[] shardHits = new TopDocs[searchers.length];
+        DeadlineCollectorManager[] collectors = new DeadlineCollectorManager[searchers.length];
+        for (int i = 0; i < searchers.length; i++) {
+            ScoreDoc shardAfter = after == null ? null : SearchCursor.afterForShard(after, i, searchers[i].getIndexReader().maxDoc());
+            collectors[i] = new DeadlineCollectorManager(count, shardAfter, trace);
+        }
+        if (searchers.length == 1) {
+            shardHits[0] = searchers[0].search(query, collectors[0]);
+            return mergeShards(count, shardHits, collectors, trace);
+        }
+
+        List<Future<TopDocs>> futures = new ArrayList<>();
+        for (int i = 0; i < searchers.length; i++) {
+            int shardIndex = i;
+            futures.add(shardSearchers.submit(() -> searchers[shardIndex].search(query, collectors[shardIndex])));
+        }
+        // wait for every shard even when one fails, so no search outlives the release of its searcher
+        Throwable failure = null;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                shardHits[i] = futures.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(future -> future.cancel(true));
+                throw new InterruptedIOException("Interrupted while searching the shards.");
+            } catch (ExecutionException e) {
+                failure = failure == null ? e.getCause() : failure;
+            }
+        }
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure != null) {
+            throw new IOException("Failed to search the shards.", failure);
+        }
+        return mergeShards(count, shardHits, collectors, trace);
+    }
+
+    private IndexSearcher[] acquireSearchers() throws IOException {
+        IndexSearcher[] searchers = new IndexSearcher[searcherManagers.size()];
+        try {
+            for (int i = 0; i < searchers.length; i++) {
+                searchers[i] = searcherManagers.get(i).acquire();
+            }
+        } catch (IOException | RuntimeException e) {
+            releaseSearchers(searchers);
+            throw e;
+        }
+        return searchers;
+    }
+
+    private void releaseSearchers(IndexSearcher[] searchers) throws IOException {
+        for (int i = 0; i < searchers.length; i++) {
+            if (searchers[i] != null) {
+                searcherManagers.get(i).release(searchers[i]);
+            }
+        }
+    }
+
+    private double countSegments() {
+        try {
+            IndexSearcher[] searchers = acquireSearchers();
+            try {
+                int segments = 0;
+                for (IndexSearcher searcher : searchers) {
+                    segments += searcher.getIndexReader().leaves().size();
+                }
+                return segments;
+            } finally {
+                releaseSearchers(searchers);
+            }
+        } catch (IOException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * The query as every shard expands it, for the slow query log. Shards can expand a prefix to different
+     * terms, so each is labeled when the index is sharded.
+     */
+    private String rewriteForLog(Query query) throws IOException {
+        IndexSearcher[] searchers = acquireSearchers();
+        try {
+            StringBuilder rewritten = new StringBuilder();
+            for (int i = 0; i < searchers.length; i++) {
+                if (searchers.length > 1) {
+                    rewritten.append(i == 0 ? "" : " ").append("shard").append(i).append(": ");
+                }
+                rewritten.append(searchers[i].rewrite(query));
+            }
+            return rewritten.toString();
+        } finally {
+            releaseSearchers(searchers);
+        }
+    }
+
+    private Query buildSuggestQuery(String text) throws IOException {
+        List<String> prefixes = new ArrayList<>();
+        try (TokenStream tokenStream = suggestAnalyzer.tokenStream("suggest", text)) {
+            CharTermAttribute termAttribute = tokenStream.addAttribute(CharTermAttribute.class);
+            tokenStream.reset();
+            while (tokenStream.incrementToken()) {
+                String prefix = termAttribute.toString();
+                prefixes.add(prefix.length() > SuggestAnalyzer.MAX_PREFIX_LENGTH
+                        ? prefix.substring(0, SuggestAnalyzer.MAX_PREFIX_LENGTH)
+                        : prefix);
+            }
+            tokenStream.end();
+        }
+
+        if (prefixes.isEmpty()) {
+            return null;
+        }
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        prefixes.forEach(prefix -> builder.add(new TermQuery(new Term("suggest", prefix)), BooleanClause.Occur.MUST));
+        return builder.build();
+    }
+
+    // -------------------- Private Static Methods --------------------
+
+    /**
+     * The pool that searches the segments of a reader in parallel, or null to search them on the calling
+     * thread. The queue is bounded; when it is full the searching thread searches the segment itself, so a
+     * burst of searches degrades to sequential segment search instead of queueing without limit.
+     */
+    private static ExecutorService createSegmentSearchers(int threads) {
+        if (threads == 0) {
+            return null;
+        }
+        AtomicInteger count = new AtomicInteger(0);
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * SEGMENT_QUEUE_PER_THREAD),
+                r -> {
+                    Thread thread = new Thread(r, "segment-search-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    private static TopDocs mergeShards(int count, TopDocs[] shardHits, DeadlineCollectorManager[] collectors, SearchTrace trace) throws IOException {
+        for (DeadlineCollectorManager collector : collectors) {
+            if (collector.isTimedOut()) {
+                trace.setPartial();
+            }
+        }
+        return TopDocs.merge(count, shardHits);
+    }
+
+    /**
+     * A version for the combined readers of all shards. Reader versions only grow, so the sum changes
+     * whenever any shard does.
+     */
+    private static long indexVersion(IndexSearcher[] searchers) {
+        long version = 0L;
+        for (IndexSearcher searcher : searchers) {
+            version += ((DirectoryReader) searcher.getIndexReader()).getVersion();
+        }
+        return version;
+    }
+
+    private static String indexPart(String file) {
+        String extension = file.substring(file.lastIndexOf('.') + 1);
+        switch (extension) {
+            case "fdt":
+            case "fdx":
+                return "stored_fields";
+            case "tvd":
+            case "tvx":
+                return "term_vectors";
+            case "tim":
+            case "tip":
+                return "terms";
+            case "doc":
+                return "postings";
+            case "pos":
+                return "positions";
+            case "pay":
+                return "offsets_and_payloads";
+            case "dvd":
+            case "dvm":
+                return "doc_values";
+            case "nvd":
+            case "nvm":
+                return "norms";
+            case "cfs":
+            case "cfe":
+                return "compound";
+            default:
+                return "other";
+        }
+    }
+
+    // -------------------- Inner Classes --------------------
+
+    private static final class PageCollector implements SearchResultListener {
+        private final List<SearchResult> results = new ArrayList<>();
+        private int totalHits;
+        private String nextCursor;
+
+        @Override
+        public void onPage(int totalHits, String nextCursor) {
+            this.totalHits = totalHits;
+            this.nextCursor = nextCursor;
+        }
+
+        @Override
+        public void onResult(SearchResult result) {
+            results.add(result);
+        }
+
+        private SearchPage toPage(boolean partial) {
+            return new SearchPage(Collections.unmodifiableList(results), totalHits, nextCursor, partial);
+        }
     }
 }
@@ -0,0 +1,302 @@
+package com.demo.lucene;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.Term;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+
+/**
+ * Indexes a directory of books with a fixed number of threads and bounded hand-offs between them:
+ * <pre>
+ *     walker --(paths)--> parse workers --(documents)--> index workers --> IndexWriter of the book's shard
+ * </pre>
+ * Both queues are bounded, so a fast stage blocks instead of piling up books, and files are only opened by
+ * the parse workers, which caps the number of open books at the number of parse workers plus the
+ * document queue. The thread calling {@link #run(Path)} acts as the coordinator: it is the only thread
+ * that commits, and it reports progress while the workers run.
+ */
+final class BulkIndexingPipeline {
+
+    // -------------------- Private Statics --------------------
+
+    private static final Path NO_MORE_PATHS = Paths.get("");
+    private static final ParsedBook NO_MORE_BOOKS = new ParsedBook(null, null, null, 0L);
+    private static final long COORDINATOR_POLL_MILLIS = 100L;
+
+    // -------------------- Private Variables --------------------
+
+    private final BookIndexer indexer;
+    private final IndexSettings settings;
+
+    private final BlockingQueue<Path> pathQueue;
+    private final BlockingQueue<ParsedBook> bookQueue;
+    private final AtomicInteger indexedBooks = new AtomicInteger(0);
+    private final AtomicInteger failedBooks = new AtomicInteger(0);
+    private final AtomicLong indexedBytes = new AtomicLong(0L);
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    // -------------------- Constructors --------------------
+
+    BulkIndexingPipeline(BookIndexer indexer, IndexSettings settings) {
+        this.indexer = indexer;
+        this.settings = settings;
+        this.pathQueue = new ArrayBlockingQueue<>(settings.getIndexingQueueCapacity());
+        this.bookQueue = new ArrayBlockingQueue<>(settings.getIndexingQueueCapacity());
+    }
+
+    // -------------------- Default Methods --------------------
+
+    final int run(Path rawDataPath) throws IOException {
+        return run(rawDataPath, path -> true);
+    }
+
+    /**
+     * Indexes the books under the given directory that match the filter and returns the number of books
+     * that were indexed. Each book replaces any document previously indexed from the same file. Books that
+     * fail to parse are reported and skipped; a failure of the index itself aborts the run.
+     */
+    final int run(Path rawDataPath, Predicate<Path> filter) throws IOException {
+        return run(queue -> {
+            try (DirectoryStream<Path> books = Files.newDirectoryStream(rawDataPath,
+                    path -> BookParser.isBook(path.getParent().toFile(), path.getFileName().toString()))) {
+                for (Path book : books) {
+                    if (filter.test(book)) {
+                        queue.put(book);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Indexes the given book files, in the same way as {@link #run(Path, Predicate)}.
+     */
+    final int run(Collection<Path> books) throws IOException {
+        return run(queue -> {
+            for (Path book : books) {
+                queue.put(book);
+            }
+        });
+    }
+
+    // -------------------- Private Methods --------------------
+
+    private int run(BookSource source) throws IOException {
+        int parseThreads = settings.getParseThreads();
+        int indexThreads = settings.getIndexThreads();
+        AtomicInteger activeParsers = new AtomicInteger(parseThreads);
+        CountDownLatch indexersDone = new CountDownLatch(indexThreads);
+
+        ExecutorService walker = Executors.newSingleThreadExecutor(threadFactory("index-walker"));
+        ExecutorService parsers = Executors.newFixedThreadPool(parseThreads, threadFactory("index-parser"));
+        ExecutorService indexers = Executors.newFixedThreadPool(indexThreads, threadFactory("index-writer"));
+        try {
+            walker.execute(guarded(() -> walk(source, parseThreads)));
+            for (int i = 0; i < parseThreads; i++) {
+                parsers.execute(guarded(() -> parse(activeParsers, indexThreads)));
+            }
+            for (int i = 0; i < indexThreads; i++) {
+                indexers.execute(guarded(() -> index(indexersDone)));
+            }
+            coordinate(indexersDone);
+        } finally {
+            walker.shutdownNow();
+            parsers.shutdownNow();
+            indexers.shutdownNow();
+            drainBooks();
+        }
+
+        Throwable cause = failure.get();
+        if (cause != null) {
+            throw new IOException("Failed to index books.", cause);
+        }
+        if (failedBooks.get() > 0) {
+            System.err.println(failedBooks.get() + " books could not be indexed.");
+        }
+        return indexedBooks.get();
+    }
+
+    private void walk(BookSource source, int parseThreads) throws Exception {
+        try {
+            source.offerTo(pathQueue);
+        } finally {
+            for (int i = 0; i < parseThreads; i++) {
+                pathQueue.put(NO_MORE_PATHS);
+            }
+        }
+    }
+
+    private void parse(AtomicInteger activeParsers, int indexThreads) throws Exception {
+        try {
+            Path path;
+            while ((path = pathQueue.take()) != NO_MORE_PATHS) {
+                ParsedBook book = parseBook(path);
+                if (book != null) {
+                    bookQueue.put(book);
+                }
+            }
+        } finally {
+            if (activeParsers.decrementAndGet() == 0) {
+                for (int i = 0; i < indexThreads; i++) {
+                    bookQueue.put(NO_MORE_BOOKS);
+                }
+            }
+        }
+    }
+
+    private ParsedBook parseBook(Path path) {
+        Reader reader = null;
+        try {
+            long size = Files.size(path);
+            String key = indexer.bookKey(path);
+            String fingerprint = indexer.fingerprint(path);
+            reader = new BufferedReader(new InputStreamReader(Files.newInputStream(path), StandardCharsets.UTF_8));
+            Document doc = indexer.createDocument(BookParser.parse(reader), key, fingerprint);
+            return new ParsedBook(key, doc, reader, size);
+        } catch (IOException | RuntimeException e) {
+            failedBooks.incrementAndGet();
+            System.err.println("Failed to parse book " + path + ": " + e.getMessage());
+            closeQuietly(reader);
+            return null;
+        }
+    }
+
+    private void index(CountDownLatch indexersDone) throws Exception {
+        try {
+            ParsedBook book;
+            while ((book = bookQueue.take()) != NO_MORE_BOOKS) {
+                try {
+                    indexer.writerFor(book.key).updateDocument(new Term("book_key", book.key), book.document);
+                    indexedBooks.incrementAndGet();
+                    indexedBytes.addAndGet(book.size);
+                    indexer.getMetrics().documentIndexed(book.size);
+                } finally {
+                    closeQuietly(book.source);
+                }
+            }
+        } finally {
+            indexersDone.countDown();
+        }
+    }
+
+    private void coordinate(CountDownLatch indexersDone) throws IOException {
+        long startTime = System.nanoTime();
+        long progressInterval = TimeUnit.MILLISECONDS.toNanos(settings.getProgressIntervalMillis());
+        long nextReport = startTime + progressInterval;
+        int lastCommitted = 0;
+
+        try {
+            while (!indexersDone.await(COORDINATOR_POLL_MILLIS, TimeUnit.MILLISECONDS) && failure.get() == null) {
+                int indexed = indexedBooks.get();
+                if (indexed - lastCommitted >= settings.getCommitMaxDocuments()) {
+                    indexer.commit();
+                    lastCommitted = indexed;
+                }
+                long now = System.nanoTime();
+                if (now >= nextReport) {
+                    reportProgress(now - startTime);
+                    nextReport = now + progressInterval;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while indexing books.", e);
+        }
+        reportProgress(System.nanoTime() - startTime);
+    }
+
+    private void reportProgress(long elapsedNanos) {
+        double seconds = Math.max(1e-9, elapsedNanos / 1e9);
+        int indexed = indexedBooks.get();
+        double megabytes = indexedBytes.get() / (1024d * 1024d);
+        System.err.println(String.format(
+                "Indexed %d books (%.1f MB) in %.1fs: %.1f docs/s, %.2f MB/s, path queue %d, document queue %d, %d failed.",
+                indexed, megabytes, seconds, indexed / seconds, megabytes / seconds,
+                pathQueue.size(), bookQueue.size(), failedBooks.get()
+        ));
+    }
+
+    private void drainBooks() {
+        ParsedBook book;
+        while ((book = bookQueue.poll()) != null) {
+            closeQuietly(book.source);
+        }
+    }
+
+    private Runnable guarded(Task task) {
+        return () -> {
+            try {
+                task.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        };
+    }
+
+    // -------------------- Private Static Methods --------------------
+
+    private static ThreadFactory threadFactory(String name) {
+        AtomicInteger count = new AtomicInteger(0);
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // -------------------- Inner Classes --------------------
+
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    private interface BookSource {
+        void offerTo(BlockingQueue<Path> queue) throws Exception;
+    }
+
+    private static final class ParsedBook {
+        private final String key;
+        private final Document document;
+        private final Closeable source;
+        private final long size;
+
+        private ParsedBook(String key, Document document, Closeable source, long size) {
+            this.key = key;
+            this.document = document;
+            this.source = source;
+            this.size = size;
+        }
+    }
+}
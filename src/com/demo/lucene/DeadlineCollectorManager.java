@@ -0,0 +1,114 @@
+package com.demo.lucene;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.CollectionTerminatedException;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.FilterCollector;
+import org.apache.lucene.search.FilterLeafCollector;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Collects the best hits of one shard until the deadline of the search passes. From then on every segment
+ * stops collecting, which the {@link org.apache.lucene.search.IndexSearcher} treats as an early end of that
+ * segment, so the hits collected so far are kept instead of the search failing. The searcher asks for one
+ * collector per slice of segments, so this also works when the segments are searched in parallel.
+ */
+final class DeadlineCollectorManager implements CollectorManager<DeadlineCollectorManager.SliceCollector, TopDocs> {
+
+    // -------------------- Private Statics --------------------
+
+    // reading the clock for every hit would cost about as much as collecting it
+    private static final int CHECK_INTERVAL = 1024;
+
+    // -------------------- Private Variables --------------------
+
+    private final int count;
+    private final ScoreDoc after;
+    private final SearchTrace trace;
+    private volatile boolean timedOut = false;
+
+    // -------------------- Constructors --------------------
+
+    /**
+     * @param after the hit to collect after, already translated to this shard, or null for the first page
+     * @param trace the trace holding the deadline, or null to collect without one
+     */
+    DeadlineCollectorManager(int count, ScoreDoc after, SearchTrace trace) {
+        this.count = count;
+        this.after = after;
+        this.trace = trace;
+    }
+
+    // -------------------- Default Methods --------------------
+
+    /**
+     * Whether collection stopped at the deadline, which makes the collected hits partial.
+     */
+    final boolean isTimedOut() {
+        return timedOut;
+    }
+
+    // -------------------- Overridden Methods --------------------
+
+    @Override
+    public final SliceCollector newCollector() {
+        return new SliceCollector(TopScoreDocCollector.create(count, after));
+    }
+
+    @Override
+    public final TopDocs reduce(Collection<SliceCollector> collectors) throws IOException {
+        TopDocs[] sliceHits = new TopDocs[collectors.size()];
+        int i = 0;
+        for (SliceCollector collector : collectors) {
+            sliceHits[i++] = collector.topDocs.topDocs();
+        }
+        return sliceHits.length == 1 ? sliceHits[0] : TopDocs.merge(count, sliceHits);
+    }
+
+    // -------------------- Private Methods --------------------
+
+    private void checkDeadline() {
+        if (timedOut || trace.isPastDeadline()) {
+            timedOut = true;
+            throw new CollectionTerminatedException();
+        }
+    }
+
+    // -------------------- Inner Classes --------------------
+
+    final class SliceCollector extends FilterCollector {
+
+        private final TopScoreDocCollector topDocs;
+
+        private SliceCollector(TopScoreDocCollector topDocs) {
+            super(topDocs);
+            this.topDocs = topDocs;
+        }
+
+        @Override
+        public LeafCollector getLeafCollector(LeafReaderContext context) throws IOException {
+            LeafCollector leafCollector = super.getLeafCollector(context);
+            if (trace == null || !trace.hasDeadline()) {
+                return leafCollector;
+            }
+            checkDeadline();
+            return new FilterLeafCollector(leafCollector) {
+                private int collected = 0;
+
+                @Override
+                public void collect(int doc) throws IOException {
+                    if (++collected % CHECK_INTERVAL == 0) {
+                        checkDeadline();
+                    }
+                    super.collect(doc);
+                }
+            };
+        }
+    }
+}
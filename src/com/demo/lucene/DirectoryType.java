@@ -0,0 +1,33 @@
+package com.demo.lucene;
+
+/**
+ * How the index files are accessed, see {@link IndexSettings#setDirectoryType(DirectoryType)}.
+ */
+public enum DirectoryType {
+
+    /**
+     * Lets Lucene pick the best implementation for the platform, which is memory mapping on 64-bit JVMs.
+     */
+    FS,
+
+    /**
+     * Memory maps the index files, with a configurable chunk size and optional preloading into the page
+     * cache.
+     */
+    MMAP,
+
+    /**
+     * Reads the index files with positional reads on a {@code FileChannel}, without mapping them.
+     */
+    NIOFS;
+
+    // -------------------- Public Static Methods --------------------
+
+    public static DirectoryType parse(String type) {
+        try {
+            return valueOf(type.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown directory type '" + type + "'.", e);
+        }
+    }
+}
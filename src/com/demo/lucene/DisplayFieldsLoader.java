@@ -0,0 +1,78 @@
+package com.demo.lucene;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.StoredFieldVisitor;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Loads the author and title of a hit without touching its contents. They are read from doc values when
+ * the segment has them. Otherwise they are read from the stored fields with a visitor that stops as soon as
+ * both have been seen; the contents are stored after them, so the book itself is never decompressed.
+ */
+final class DisplayFieldsLoader {
+
+    // -------------------- Private Variables --------------------
+
+    private final boolean useDocValues;
+
+    // -------------------- Constructors --------------------
+
+    DisplayFieldsLoader(boolean useDocValues) {
+        this.useDocValues = useDocValues;
+    }
+
+    // -------------------- Default Methods --------------------
+
+    /**
+     * Returns a document holding only the {@code author} and {@code title} of the hit.
+     */
+    final Document load(IndexReader reader, int docId) throws IOException {
+        if (useDocValues) {
+            List<LeafReaderContext> leaves = reader.leaves();
+            LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(docId, leaves));
+            SortedDocValues authors = leaf.reader().getSortedDocValues("author");
+            SortedDocValues titles = leaf.reader().getSortedDocValues("title");
+            int leafDocId = docId - leaf.docBase;
+            if (authors != null && titles != null && authors.getOrd(leafDocId) >= 0 && titles.getOrd(leafDocId) >= 0) {
+                Document doc = new Document();
+                doc.add(new StoredField("author", authors.get(leafDocId).utf8ToString()));
+                doc.add(new StoredField("title", titles.get(leafDocId).utf8ToString()));
+                return doc;
+            }
+        }
+        DisplayFieldsVisitor visitor = new DisplayFieldsVisitor();
+        reader.document(docId, visitor);
+        return visitor.doc;
+    }
+
+    // -------------------- Inner Classes --------------------
+
+    private static final class DisplayFieldsVisitor extends StoredFieldVisitor {
+
+        private final Document doc = new Document();
+        private int remaining = 2;
+
+        @Override
+        public Status needsField(FieldInfo fieldInfo) {
+            if (remaining == 0) {
+                return Status.STOP;
+            }
+            return fieldInfo.name.equals("author") || fieldInfo.name.equals("title") ? Status.YES : Status.NO;
+        }
+
+        @Override
+        public void stringField(FieldInfo fieldInfo, byte[] value) {
+            doc.add(new StoredField(fieldInfo.name, new String(value, StandardCharsets.UTF_8)));
+            remaining--;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.demo.lucene;
+
+/**
+ * How context snippets are produced for search hits, see {@link BookHighlighter}.
+ */
+public enum HighlighterType {
+
+    /**
+     * Builds snippets from the offsets in the term vectors of the {@code contents} field, without
+     * analyzing the book again.
+     */
+    VECTOR,
+
+    /**
+     * Re-analyzes the book to find the matches. Slower, and only the first 50KB of each book are looked at,
+     * but it works with any {@link IndexProfile}.
+     */
+    ANALYZING,
+
+    /**
+     * Finds the matches with the offsets in the postings of the {@code contents} field, which the profiles
+     * without term vectors index, and returns the best matching line of the book.
+     */
+    POSTINGS;
+
+    // -------------------- Public Static Methods --------------------
+
+    public static HighlighterType parse(String type) {
+        try {
+            return valueOf(type.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown highlighter '" + type + "'.", e);
+        }
+    }
+}
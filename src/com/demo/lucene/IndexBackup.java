@@ -0,0 +1,170 @@
+package com.demo.lucene;
+
+import com.demo.web.BackupReport;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Copies the commit of each shard between the index and a backup directory, in both directions. Lucene never
+ * changes a file once it is written, so a file that is already at the destination with the same length and
+ * checksum is kept, and only the segments written since the last copy are transferred. The
+ * {@code segments_N} file that makes a commit visible is copied last and the files of the previous commit
+ * are deleted only after it, so the destination holds a complete commit at every point of the copy.
+ */
+public final class IndexBackup {
+
+    // -------------------- Constructors --------------------
+
+    private IndexBackup() {
+    }
+
+    // -------------------- Public Static Methods --------------------
+
+    /**
+     * Replaces the index at {@code indexPath} with the backup of the configured backup path, so a node can
+     * start from the last backup instead of indexing every book. Must run before the {@link BookIndexer}
+     * opens the index. An index that is already there is only replaced by a newer backup, since uploads
+     * committed after the backup can't be indexed again. Returns null, after logging why, if nothing was
+     * restored: there is no complete backup, or the index is as new as the backup.
+     *
+     * @throws IllegalArgumentException if the backup was taken with a different number of shards
+     */
+    public static BackupReport restore(Path indexPath, IndexSettings settings) throws IOException {
+        Path backupPath = settings.getBackupPath();
+        int shardCount = settings.getShardCount();
+        int backupShardCount = BookIndexer.readShardCount(backupPath);
+        if (backupShardCount == 0) {
+            System.err.println("There is no backup in " + backupPath + " to restore the index from.");
+            return null;
+        }
+        if (backupShardCount != shardCount) {
+            throw new IllegalArgumentException("The backup in " + backupPath + " has " + backupShardCount + " shards, not " + shardCount + ".");
+        }
+        for (int shard = 0; shard < shardCount; shard++) {
+            if (readGeneration(BookIndexer.shardPath(backupPath, shard, shardCount)) < 0L) {
+                System.err.println("The backup in " + backupPath + " is missing shard " + shard + ", so it isn't restored.");
+                return null;
+            }
+        }
+        int indexShardCount = BookIndexer.readShardCount(indexPath);
+        if (indexShardCount != 0 && indexShardCount != shardCount) {
+            System.err.println("The index in " + indexPath + " has " + indexShardCount + " shards, so it isn't replaced by the backup.");
+            return null;
+        }
+        if (indexShardCount != 0) {
+            // the shards are only committed together, so the first one tells which copy is newer
+            long indexGeneration = readGeneration(BookIndexer.shardPath(indexPath, 0, shardCount));
+            if (readGeneration(BookIndexer.shardPath(backupPath, 0, shardCount)) <= indexGeneration) {
+                System.err.println("The index in " + indexPath + " is as new as the backup, so it isn't restored.");
+                return null;
+            }
+        }
+
+        long startTime = System.currentTimeMillis();
+        BackupReport report = new BackupReport(indexPath.toString());
+        for (int shard = 0; shard < shardCount; shard++) {
+            Path from = BookIndexer.shardPath(backupPath, shard, shardCount);
+            Path to = BookIndexer.shardPath(indexPath, shard, shardCount);
+            Files.createDirectories(to);
+            try (Directory backup = FSDirectory.open(from); Directory index = FSDirectory.open(to)) {
+                List<IndexCommit> commits = DirectoryReader.listCommits(backup);
+                copyCommit(backup, commits.get(commits.size() - 1).getFileNames(), index, to, report);
+            }
+        }
+        report.setElapsedMillis(System.currentTimeMillis() - startTime);
+        return report;
+    }
+
+    // -------------------- Default Static Methods --------------------
+
+    /**
+     * Copies the files of one commit from one directory to another and deletes every other file in the
+     * destination.
+     */
+    static void copyCommit(Directory from, Collection<String> files, Directory to, Path toPath, BackupReport report) throws IOException {
+        List<String> segmentFiles = new ArrayList<>();
+        List<String> commitFiles = new ArrayList<>();
+        for (String file : files) {
+            (file.startsWith(IndexFileNames.SEGMENTS) ? commitFiles : segmentFiles).add(file);
+        }
+        copyFiles(from, segmentFiles, to, toPath, report);
+        copyFiles(from, commitFiles, to, toPath, report);
+        IOUtils.fsync(toPath, true);
+
+        Set<String> keep = new HashSet<>(files);
+        for (String file : to.listAll()) {
+            if (!keep.contains(file) && !file.equals(IndexWriter.WRITE_LOCK_NAME) && Files.isRegularFile(toPath.resolve(file))) {
+                to.deleteFile(file);
+                report.fileDeleted();
+            }
+        }
+    }
+
+    // -------------------- Private Static Methods --------------------
+
+    private static void copyFiles(Directory from, List<String> files, Directory to, Path toPath, BackupReport report) throws IOException {
+        List<String> copied = new ArrayList<>();
+        for (String file : files) {
+            long length = from.fileLength(file);
+            boolean exists = Files.exists(toPath.resolve(file));
+            if (exists && isSameFile(from, to, file, length)) {
+                report.fileReused(length);
+                continue;
+            }
+            if (exists) {
+                to.deleteFile(file);
+            }
+            to.copyFrom(from, file, file, IOContext.READONCE);
+            copied.add(file);
+            report.fileCopied(length);
+        }
+        to.sync(copied);
+    }
+
+    /**
+     * Every index file ends with a checksum, so comparing lengths and checksums is enough to tell whether
+     * the copy at the destination is the same file, without reading either of them.
+     */
+    private static boolean isSameFile(Directory from, Directory to, String file, long length) throws IOException {
+        if (to.fileLength(file) != length) {
+            return false;
+        }
+        try (IndexInput source = from.openInput(file, IOContext.READONCE);
+             IndexInput copy = to.openInput(file, IOContext.READONCE)) {
+            return CodecUtil.retrieveChecksum(source) == CodecUtil.retrieveChecksum(copy);
+        } catch (IOException e) {
+            // a damaged copy is simply copied again
+            return false;
+        }
+    }
+
+    /**
+     * The generation of the last commit in the directory, or -1 if there is no commit.
+     */
+    private static long readGeneration(Path path) throws IOException {
+        if (!Files.isDirectory(path)) {
+            return -1L;
+        }
+        try (Directory directory = FSDirectory.open(path)) {
+            return SegmentInfos.getLastCommitGeneration(directory);
+        }
+    }
+}
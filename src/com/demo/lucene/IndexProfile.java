@@ -0,0 +1,106 @@
+package com.demo.lucene;
+
+import org.apache.lucene.codecs.Codec;
+import org.apache.lucene.codecs.lucene50.Lucene50StoredFieldsFormat;
+import org.apache.lucene.codecs.lucene53.Lucene53Codec;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.IndexOptions;
+
+/**
+ * How the body of a book is indexed, trading index size against highlighting. Every profile indexes
+ * positions, so phrase searches work the same way; the profiles differ in where the snippets come from:
+ * <ul>
+ *     <li>{@link #FULL}: the body is stored, with term vectors for the vector highlighter</li>
+ *     <li>{@link #COMPRESSED}: like {@link #FULL}, with stored fields written in the best compression mode</li>
+ *     <li>{@link #STORED_NO_VECTORS}: the body is stored compressed, with offsets in the postings instead of
+ *     term vectors</li>
+ *     <li>{@link #EXTERNAL}: nothing but the postings with offsets, snippets are built from the book file
+ *     itself; uploaded books have no file, so their body is still stored</li>
+ * </ul>
+ * Changing the profile only affects books indexed from then on; run a full indexing to convert an index.
+ */
+public enum IndexProfile {
+    FULL(true, true, false),
+    COMPRESSED(true, true, true),
+    STORED_NO_VECTORS(true, false, true),
+    EXTERNAL(false, false, false);
+
+    // -------------------- Private Variables --------------------
+
+    private final boolean stored;
+    private final boolean termVectors;
+    private final boolean bestCompression;
+    private final FieldType contentsType;
+    private final FieldType storedContentsType;
+
+    // -------------------- Constructors --------------------
+
+    IndexProfile(boolean stored, boolean termVectors, boolean bestCompression) {
+        this.stored = stored;
+        this.termVectors = termVectors;
+        this.bestCompression = bestCompression;
+
+        FieldType type = new FieldType();
+        type.setTokenized(true);
+        type.setStored(stored);
+        if (termVectors) {
+            type.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
+            type.setStoreTermVectors(true);
+            type.setStoreTermVectorPositions(true);
+            type.setStoreTermVectorOffsets(true);
+        } else {
+            type.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+        }
+        type.freeze();
+        this.contentsType = type;
+
+        FieldType storedType = new FieldType(type);
+        storedType.setStored(true);
+        storedType.freeze();
+        this.storedContentsType = storedType;
+    }
+
+    // -------------------- Public Static Methods --------------------
+
+    public static IndexProfile parse(String profile) {
+        try {
+            return valueOf(profile.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown index profile '" + profile + "'.", e);
+        }
+    }
+
+    // -------------------- Default Methods --------------------
+
+    final boolean isStored() {
+        return stored;
+    }
+
+    final boolean hasTermVectors() {
+        return termVectors;
+    }
+
+    /**
+     * Whether the postings of the body have offsets, which the postings highlighter needs.
+     */
+    final boolean hasOffsets() {
+        return !termVectors;
+    }
+
+    final Codec getCodec() {
+        return bestCompression
+                ? new Lucene53Codec(Lucene50StoredFieldsFormat.Mode.BEST_COMPRESSION)
+                : Codec.getDefault();
+    }
+
+    final FieldType getContentsType() {
+        return contentsType;
+    }
+
+    /**
+     * The same as {@link #getContentsType()}, but always stored.
+     */
+    final FieldType getStoredContentsType() {
+        return storedContentsType;
+    }
+}
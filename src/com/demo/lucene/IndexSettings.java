@@ -0,0 +1,635 @@
+package com.demo.lucene;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tunables shared by the {@link BookIndexer} and the {@link BookSearcher}.
+ */
+public final class IndexSettings {
+
+    // -------------------- Private Variables --------------------
+
+    private long refreshIntervalMillis = TimeUnit.SECONDS.toMillis(1);
+    private int commitMaxDocuments = 1000;
+    private long commitIntervalMillis = TimeUnit.SECONDS.toMillis(5);
+    private double ramBufferSizeMB = 512d;
+    private IndexProfile indexProfile = IndexProfile.FULL;
+    private int parseThreads = Runtime.getRuntime().availableProcessors();
+    private int indexThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private int indexingQueueCapacity = 64;
+    private long progressIntervalMillis = TimeUnit.SECONDS.toMillis(10);
+    private long watchDebounceMillis = TimeUnit.SECONDS.toMillis(1);
+    private int queryCacheMaxEntries = 1000;
+    private double queryCacheMaxSizeMB = 64d;
+    private long queryCacheTtlMillis = TimeUnit.MINUTES.toMillis(5);
+    private HighlighterType highlighterType = HighlighterType.VECTOR;
+    private int snippetSize = 100;
+    private long highlightBudgetMillis = 250L;
+    private boolean displayFieldsFromDocValues = true;
+    private long slowQueryThresholdMillis = TimeUnit.SECONDS.toMillis(1);
+    private Path slowQueryLogPath = Paths.get("slow-queries.log");
+    private double slowQueryLogMaxSizeMB = 10d;
+    private int slowQueryLogMaxFiles = 5;
+    private DirectoryType directoryType = DirectoryType.FS;
+    private int mmapMaxChunkSizeMB = 1024;
+    private boolean mmapPreload = false;
+    private boolean nrtCaching = false;
+    private double nrtCachingMaxMergeSizeMB = 5d;
+    private double nrtCachingMaxCachedMB = 60d;
+    private int shardCount = 1;
+    private int searchThreads = Runtime.getRuntime().availableProcessors();
+    private int segmentSearchThreads = 0;
+    private double maxMergedSegmentMB = 5 * 1024d;
+    private double segmentsPerTier = 10d;
+    private double floorSegmentMB = 2d;
+    private int maxMergeThreads = 0;
+    private int forceMergeMaxSegments = 0;
+    private Path uploadSpoolPath = Paths.get("uploads");
+    private double uploadMaxSizeMB = 64d;
+    private int uploadMaxQueuedJobs = 1000;
+    private int uploadBatchSize = 64;
+    private Path backupPath = Paths.get("backup");
+
+    // -------------------- Public Methods --------------------
+
+    /**
+     * How often the searcher reopens to pick up changes from the {@link BookIndexer}. This bounds how
+     * long an uploaded book can take to become searchable.
+     */
+    public final IndexSettings setRefreshIntervalMillis(long refreshIntervalMillis) {
+        if (refreshIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Refresh interval must be positive.");
+        }
+        this.refreshIntervalMillis = refreshIntervalMillis;
+        return this;
+    }
+
+    /**
+     * Commits once this many books have been added since the last commit.
+     */
+    public final IndexSettings setCommitMaxDocuments(int commitMaxDocuments) {
+        if (commitMaxDocuments <= 0) {
+            throw new IllegalArgumentException("Commit document count must be positive.");
+        }
+        this.commitMaxDocuments = commitMaxDocuments;
+        return this;
+    }
+
+    /**
+     * Commits pending changes at least this often, however few books were added.
+     */
+    public final IndexSettings setCommitIntervalMillis(long commitIntervalMillis) {
+        if (commitIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Commit interval must be positive.");
+        }
+        this.commitIntervalMillis = commitIntervalMillis;
+        return this;
+    }
+
+    /**
+     * The RAM buffer of the whole index; with several shards it is split evenly between their writers.
+     */
+    public final IndexSettings setRamBufferSizeMB(double ramBufferSizeMB) {
+        if (ramBufferSizeMB <= 0) {
+            throw new IllegalArgumentException("RAM buffer size must be positive.");
+        }
+        this.ramBufferSizeMB = ramBufferSizeMB;
+        return this;
+    }
+
+    /**
+     * How the body of each book is indexed, see {@link IndexProfile}. When the profile doesn't store the
+     * body, it is streamed from the source into the analyzer and never held in memory as a whole.
+     */
+    public final IndexSettings setIndexProfile(IndexProfile indexProfile) {
+        this.indexProfile = indexProfile;
+        return this;
+    }
+
+    /**
+     * Number of threads that open and parse books during a full indexing.
+     */
+    public final IndexSettings setParseThreads(int parseThreads) {
+        if (parseThreads <= 0) {
+            throw new IllegalArgumentException("Parse thread count must be positive.");
+        }
+        this.parseThreads = parseThreads;
+        return this;
+    }
+
+    /**
+     * Number of threads that add parsed books to the index writer during a full indexing.
+     */
+    public final IndexSettings setIndexThreads(int indexThreads) {
+        if (indexThreads <= 0) {
+            throw new IllegalArgumentException("Index thread count must be positive.");
+        }
+        this.indexThreads = indexThreads;
+        return this;
+    }
+
+    /**
+     * Capacity of each hand-off queue in the full indexing pipeline. Together with the thread counts this
+     * bounds how many books are open and in memory at once.
+     */
+    public final IndexSettings setIndexingQueueCapacity(int indexingQueueCapacity) {
+        if (indexingQueueCapacity <= 0) {
+            throw new IllegalArgumentException("Indexing queue capacity must be positive.");
+        }
+        this.indexingQueueCapacity = indexingQueueCapacity;
+        return this;
+    }
+
+    public final IndexSettings setProgressIntervalMillis(long progressIntervalMillis) {
+        if (progressIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Progress interval must be positive.");
+        }
+        this.progressIntervalMillis = progressIntervalMillis;
+        return this;
+    }
+
+    /**
+     * How long the books directory has to be quiet before the watcher indexes the changes it has seen.
+     */
+    public final IndexSettings setWatchDebounceMillis(long watchDebounceMillis) {
+        if (watchDebounceMillis <= 0) {
+            throw new IllegalArgumentException("Watch debounce interval must be positive.");
+        }
+        this.watchDebounceMillis = watchDebounceMillis;
+        return this;
+    }
+
+    /**
+     * Maximum number of searches whose results are cached. Zero disables the cache.
+     */
+    public final IndexSettings setQueryCacheMaxEntries(int queryCacheMaxEntries) {
+        if (queryCacheMaxEntries < 0) {
+            throw new IllegalArgumentException("Query cache entry count can't be negative.");
+        }
+        this.queryCacheMaxEntries = queryCacheMaxEntries;
+        return this;
+    }
+
+    /**
+     * Maximum estimated heap used by cached search results.
+     */
+    public final IndexSettings setQueryCacheMaxSizeMB(double queryCacheMaxSizeMB) {
+        if (queryCacheMaxSizeMB <= 0) {
+            throw new IllegalArgumentException("Query cache size must be positive.");
+        }
+        this.queryCacheMaxSizeMB = queryCacheMaxSizeMB;
+        return this;
+    }
+
+    /**
+     * How long cached search results are served for, even if the index doesn't change.
+     */
+    public final IndexSettings setQueryCacheTtlMillis(long queryCacheTtlMillis) {
+        if (queryCacheTtlMillis <= 0) {
+            throw new IllegalArgumentException("Query cache time-to-live must be positive.");
+        }
+        this.queryCacheTtlMillis = queryCacheTtlMillis;
+        return this;
+    }
+
+    public final IndexSettings setHighlighterType(HighlighterType highlighterType) {
+        this.highlighterType = highlighterType;
+        return this;
+    }
+
+    /**
+     * Approximate length of the context snippet shown for each hit, in characters.
+     */
+    public final IndexSettings setSnippetSize(int snippetSize) {
+        if (snippetSize < 20) {
+            throw new IllegalArgumentException("Snippet size must be at least 20 characters.");
+        }
+        this.snippetSize = snippetSize;
+        return this;
+    }
+
+    /**
+     * How long a single search may spend highlighting its hits. Hits that are left when the budget runs out
+     * are returned without a snippet.
+     */
+    public final IndexSettings setHighlightBudgetMillis(long highlightBudgetMillis) {
+        if (highlightBudgetMillis <= 0) {
+            throw new IllegalArgumentException("Highlight budget must be positive.");
+        }
+        this.highlightBudgetMillis = highlightBudgetMillis;
+        return this;
+    }
+
+    /**
+     * Whether the author and title of hits are read from doc values instead of the stored fields. Books
+     * indexed before doc values were added are read from the stored fields either way.
+     */
+    public final IndexSettings setDisplayFieldsFromDocValues(boolean displayFieldsFromDocValues) {
+        this.displayFieldsFromDocValues = displayFieldsFromDocValues;
+        return this;
+    }
+
+    /**
+     * Searches that take at least this long are written to the slow query log. Zero disables the log.
+     */
+    public final IndexSettings setSlowQueryThresholdMillis(long slowQueryThresholdMillis) {
+        if (slowQueryThresholdMillis < 0) {
+            throw new IllegalArgumentException("Slow query threshold must not be negative.");
+        }
+        this.slowQueryThresholdMillis = slowQueryThresholdMillis;
+        return this;
+    }
+
+    public final IndexSettings setSlowQueryLogPath(Path slowQueryLogPath) {
+        this.slowQueryLogPath = slowQueryLogPath;
+        return this;
+    }
+
+    /**
+     * The slow query log is rolled over once it reaches this size.
+     */
+    public final IndexSettings setSlowQueryLogMaxSizeMB(double slowQueryLogMaxSizeMB) {
+        if (slowQueryLogMaxSizeMB <= 0) {
+            throw new IllegalArgumentException("Slow query log size must be positive.");
+        }
+        this.slowQueryLogMaxSizeMB = slowQueryLogMaxSizeMB;
+        return this;
+    }
+
+    /**
+     * How many rolled over slow query logs are kept.
+     */
+    public final IndexSettings setSlowQueryLogMaxFiles(int slowQueryLogMaxFiles) {
+        if (slowQueryLogMaxFiles <= 0) {
+            throw new IllegalArgumentException("Slow query log file count must be positive.");
+        }
+        this.slowQueryLogMaxFiles = slowQueryLogMaxFiles;
+        return this;
+    }
+
+    public final IndexSettings setDirectoryType(DirectoryType directoryType) {
+        this.directoryType = directoryType;
+        return this;
+    }
+
+    /**
+     * The size of the chunks index files are mapped in with {@link DirectoryType#MMAP}. Rounded down to a
+     * power of two.
+     */
+    public final IndexSettings setMmapMaxChunkSizeMB(int mmapMaxChunkSizeMB) {
+        if (mmapMaxChunkSizeMB <= 0 || mmapMaxChunkSizeMB > 1024) {
+            throw new IllegalArgumentException("Memory map chunk size must be between 1 and 1024 MB.");
+        }
+        this.mmapMaxChunkSizeMB = mmapMaxChunkSizeMB;
+        return this;
+    }
+
+    /**
+     * Whether {@link DirectoryType#MMAP} touches every page of a file when it is opened, so the first
+     * searches after a refresh don't pay for page faults.
+     */
+    public final IndexSettings setMmapPreload(boolean mmapPreload) {
+        this.mmapPreload = mmapPreload;
+        return this;
+    }
+
+    /**
+     * Whether small segments written by flushes and merges are kept in memory until they are committed or
+     * merged away, so near real-time refreshes don't have to read them back from disk.
+     */
+    public final IndexSettings setNrtCaching(boolean nrtCaching) {
+        this.nrtCaching = nrtCaching;
+        return this;
+    }
+
+    /**
+     * Only segments from merges up to this size are cached in memory.
+     */
+    public final IndexSettings setNrtCachingMaxMergeSizeMB(double nrtCachingMaxMergeSizeMB) {
+        if (nrtCachingMaxMergeSizeMB <= 0) {
+            throw new IllegalArgumentException("NRT caching merge size must be positive.");
+        }
+        this.nrtCachingMaxMergeSizeMB = nrtCachingMaxMergeSizeMB;
+        return this;
+    }
+
+    /**
+     * The total size of the segments cached in memory.
+     */
+    public final IndexSettings setNrtCachingMaxCachedMB(double nrtCachingMaxCachedMB) {
+        if (nrtCachingMaxCachedMB <= 0) {
+            throw new IllegalArgumentException("NRT cache size must be positive.");
+        }
+        this.nrtCachingMaxCachedMB = nrtCachingMaxCachedMB;
+        return this;
+    }
+
+    /**
+     * Number of shards books are spread over by their key. A single shard lives directly in the index
+     * directory, several shards in {@code shard-<n>} directories under it. Books are only found in the shard
+     * they were indexed into, so the count is saved with the index and an index with a different count is
+     * refused; changing it means deleting the index and indexing every book again.
+     */
+    public final IndexSettings setShardCount(int shardCount) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("Shard count must be positive.");
+        }
+        this.shardCount = shardCount;
+        return this;
+    }
+
+    /**
+     * Number of threads that search the shards of a sharded index in parallel. Unused with a single shard.
+     */
+    public final IndexSettings setSearchThreads(int searchThreads) {
+        if (searchThreads <= 0) {
+            throw new IllegalArgumentException("Search thread count must be positive.");
+        }
+        this.searchThreads = searchThreads;
+        return this;
+    }
+
+    /**
+     * Number of threads that search the segments of each shard in parallel, which lowers the latency of a
+     * single search on a multi-segment index at the cost of throughput under load. 0, the default, searches
+     * the segments on the searching thread.
+     */
+    public final IndexSettings setSegmentSearchThreads(int segmentSearchThreads) {
+        if (segmentSearchThreads < 0) {
+            throw new IllegalArgumentException("Segment search thread count can't be negative.");
+        }
+        this.segmentSearchThreads = segmentSearchThreads;
+        return this;
+    }
+
+    /**
+     * Segments aren't merged beyond this size, except by a forced merge.
+     */
+    public final IndexSettings setMaxMergedSegmentMB(double maxMergedSegmentMB) {
+        if (maxMergedSegmentMB <= 0) {
+            throw new IllegalArgumentException("Maximum merged segment size must be positive.");
+        }
+        this.maxMergedSegmentMB = maxMergedSegmentMB;
+        return this;
+    }
+
+    /**
+     * How many segments of about the same size are allowed before they are merged. Lower values mean
+     * fewer segments to search but more merging while indexing.
+     */
+    public final IndexSettings setSegmentsPerTier(double segmentsPerTier) {
+        if (segmentsPerTier < 2) {
+            throw new IllegalArgumentException("Segments per tier must be at least 2.");
+        }
+        this.segmentsPerTier = segmentsPerTier;
+        return this;
+    }
+
+    /**
+     * Segments smaller than this are merged as if they were this size, so tiny flushed segments are merged
+     * away quickly.
+     */
+    public final IndexSettings setFloorSegmentMB(double floorSegmentMB) {
+        if (floorSegmentMB <= 0) {
+            throw new IllegalArgumentException("Floor segment size must be positive.");
+        }
+        this.floorSegmentMB = floorSegmentMB;
+        return this;
+    }
+
+    /**
+     * Number of merges each shard runs at once. 0, the default, lets Lucene pick based on the disk and
+     * the number of cores.
+     */
+    public final IndexSettings setMaxMergeThreads(int maxMergeThreads) {
+        if (maxMergeThreads < 0) {
+            throw new IllegalArgumentException("Merge thread count can't be negative.");
+        }
+        this.maxMergeThreads = maxMergeThreads;
+        return this;
+    }
+
+    /**
+     * Merges each shard down to at most this many segments after a full indexing. 0, the default, leaves
+     * the segments to the merge policy.
+     */
+    public final IndexSettings setForceMergeMaxSegments(int forceMergeMaxSegments) {
+        if (forceMergeMaxSegments < 0) {
+            throw new IllegalArgumentException("Forced merge segment count can't be negative.");
+        }
+        this.forceMergeMaxSegments = forceMergeMaxSegments;
+        return this;
+    }
+
+    /**
+     * The directory the {@link UploadQueue} spools uploaded books to until they are indexed.
+     */
+    public final IndexSettings setUploadSpoolPath(Path uploadSpoolPath) {
+        this.uploadSpoolPath = uploadSpoolPath;
+        return this;
+    }
+
+    public final IndexSettings setUploadMaxSizeMB(double uploadMaxSizeMB) {
+        if (uploadMaxSizeMB <= 0) {
+            throw new IllegalArgumentException("Maximum upload size must be positive.");
+        }
+        this.uploadMaxSizeMB = uploadMaxSizeMB;
+        return this;
+    }
+
+    /**
+     * Uploads are turned away while this many books are waiting to be indexed.
+     */
+    public final IndexSettings setUploadMaxQueuedJobs(int uploadMaxQueuedJobs) {
+        if (uploadMaxQueuedJobs <= 0) {
+            throw new IllegalArgumentException("Maximum queued uploads must be positive.");
+        }
+        this.uploadMaxQueuedJobs = uploadMaxQueuedJobs;
+        return this;
+    }
+
+    /**
+     * The most uploaded books indexed together under a single commit.
+     */
+    public final IndexSettings setUploadBatchSize(int uploadBatchSize) {
+        if (uploadBatchSize <= 0) {
+            throw new IllegalArgumentException("Upload batch size must be positive.");
+        }
+        this.uploadBatchSize = uploadBatchSize;
+        return this;
+    }
+
+    /**
+     * The directory {@link BookIndexer#backup()} copies the index to, and {@link IndexBackup#restore} restores
+     * it from. It holds the last commit of every shard, laid out like the index itself.
+     */
+    public final IndexSettings setBackupPath(Path backupPath) {
+        this.backupPath = backupPath;
+        return this;
+    }
+
+    // -------------------- Default Methods --------------------
+
+    final long getRefreshIntervalMillis() {
+        return refreshIntervalMillis;
+    }
+
+    final int getCommitMaxDocuments() {
+        return commitMaxDocuments;
+    }
+
+    final long getCommitIntervalMillis() {
+        return commitIntervalMillis;
+    }
+
+    final double getRamBufferSizeMB() {
+        return ramBufferSizeMB;
+    }
+
+    final IndexProfile getIndexProfile() {
+        return indexProfile;
+    }
+
+    final int getParseThreads() {
+        return parseThreads;
+    }
+
+    final int getIndexThreads() {
+        return indexThreads;
+    }
+
+    final int getIndexingQueueCapacity() {
+        return indexingQueueCapacity;
+    }
+
+    final long getProgressIntervalMillis() {
+        return progressIntervalMillis;
+    }
+
+    final long getWatchDebounceMillis() {
+        return watchDebounceMillis;
+    }
+
+    final int getQueryCacheMaxEntries() {
+        return queryCacheMaxEntries;
+    }
+
+    final long getQueryCacheMaxSizeInBytes() {
+        return (long) (queryCacheMaxSizeMB * 1024 * 1024);
+    }
+
+    final long getQueryCacheTtlMillis() {
+        return queryCacheTtlMillis;
+    }
+
+    final HighlighterType getHighlighterType() {
+        return highlighterType;
+    }
+
+    final int getSnippetSize() {
+        return snippetSize;
+    }
+
+    final long getHighlightBudgetMillis() {
+        return highlightBudgetMillis;
+    }
+
+    final boolean isDisplayFieldsFromDocValues() {
+        return displayFieldsFromDocValues;
+    }
+
+    final long getSlowQueryThresholdMillis() {
+        return slowQueryThresholdMillis;
+    }
+
+    final Path getSlowQueryLogPath() {
+        return slowQueryLogPath;
+    }
+
+    final long getSlowQueryLogMaxSizeInBytes() {
+        return (long) (slowQueryLogMaxSizeMB * 1024 * 1024);
+    }
+
+    final int getSlowQueryLogMaxFiles() {
+        return slowQueryLogMaxFiles;
+    }
+
+    final DirectoryType getDirectoryType() {
+        return directoryType;
+    }
+
+    final int getMmapMaxChunkSizeInBytes() {
+        return mmapMaxChunkSizeMB == 1024 ? Integer.MAX_VALUE : mmapMaxChunkSizeMB * 1024 * 1024;
+    }
+
+    final boolean isMmapPreload() {
+        return mmapPreload;
+    }
+
+    final boolean isNrtCaching() {
+        return nrtCaching;
+    }
+
+    final double getNrtCachingMaxMergeSizeMB() {
+        return nrtCachingMaxMergeSizeMB;
+    }
+
+    final double getNrtCachingMaxCachedMB() {
+        return nrtCachingMaxCachedMB;
+    }
+
+    final int getShardCount() {
+        return shardCount;
+    }
+
+    final int getSearchThreads() {
+        return searchThreads;
+    }
+
+    final int getSegmentSearchThreads() {
+        return segmentSearchThreads;
+    }
+
+    final double getMaxMergedSegmentMB() {
+        return maxMergedSegmentMB;
+    }
+
+    final double getSegmentsPerTier() {
+        return segmentsPerTier;
+    }
+
+    final double getFloorSegmentMB() {
+        return floorSegmentMB;
+    }
+
+    final int getMaxMergeThreads() {
+        return maxMergeThreads;
+    }
+
+    final int getForceMergeMaxSegments() {
+        return forceMergeMaxSegments;
+    }
+
+    final Path getUploadSpoolPath() {
+        return uploadSpoolPath;
+    }
+
+    final long getUploadMaxSizeInBytes() {
+        return (long) (uploadMaxSizeMB * 1024 * 1024);
+    }
+
+    final int getUploadMaxQueuedJobs() {
+        return uploadMaxQueuedJobs;
+    }
+
+    final int getUploadBatchSize() {
+        return uploadBatchSize;
+    }
+
+    final Path getBackupPath() {
+        return backupPath;
+    }
+
+}
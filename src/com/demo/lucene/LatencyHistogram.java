@@ -0,0 +1,70 @@
+package com.demo.lucene;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations recorded in nanoseconds into fixed buckets from 10 microseconds to 10
+ * seconds, cheap enough to update on every request from any thread. It is written out as a cumulative
+ * Prometheus histogram in seconds.
+ */
+final class LatencyHistogram {
+
+    // -------------------- Private Statics --------------------
+
+    private static final double[] BUCKET_SECONDS = {
+            0.00001, 0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5,
+            1, 2.5, 5, 10
+    };
+    private static final long[] BUCKET_NANOS = new long[BUCKET_SECONDS.length];
+    static {
+        for (int i = 0; i < BUCKET_SECONDS.length; i++) {
+            BUCKET_NANOS[i] = (long) (BUCKET_SECONDS[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    // -------------------- Private Variables --------------------
+
+    // the last bucket counts everything above the highest bound
+    private final LongAdder[] buckets = new LongAdder[BUCKET_NANOS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    // -------------------- Constructors --------------------
+
+    LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    // -------------------- Default Methods --------------------
+
+    final void record(long nanos) {
+        int bucket = 0;
+        while (bucket < BUCKET_NANOS.length && nanos > BUCKET_NANOS[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Writes the bucket, sum and count samples of this histogram. {@code labels} are added to every
+     * sample, e.g. {@code stage="parse"}, and may be empty.
+     */
+    final void writeTo(Writer writer, String name, String labels) throws IOException {
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        long cumulative = 0L;
+        for (int i = 0; i < BUCKET_SECONDS.length; i++) {
+            cumulative += buckets[i].sum();
+            writer.write(name + "_bucket{" + prefix + "le=\"" + BUCKET_SECONDS[i] + "\"} " + cumulative + "\n");
+        }
+        cumulative += buckets[BUCKET_SECONDS.length].sum();
+        writer.write(name + "_bucket{" + prefix + "le=\"+Inf\"} " + cumulative + "\n");
+        String suffix = labels.isEmpty() ? "" : "{" + labels + "}";
+        writer.write(name + "_sum" + suffix + " " + sumNanos.sum() / 1e9 + "\n");
+        writer.write(name + "_count" + suffix + " " + cumulative + "\n");
+    }
+}
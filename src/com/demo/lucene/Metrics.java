@@ -0,0 +1,156 @@
+package com.demo.lucene;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Latency histograms, counters and gauges of the indexer and the searcher. They are kept in memory and
+ * written out on request in the Prometheus text exposition format, see {@link #writeTo(Writer)}. The
+ * {@link BookIndexer} owns the metrics; the {@link BookSearcher} and the server record into the same
+ * instance.
+ */
+public final class Metrics {
+
+    // -------------------- Private Variables --------------------
+
+    private final LatencyHistogram searchDuration = new LatencyHistogram();
+    private final LatencyHistogram[] searchStages = new LatencyHistogram[SearchStage.values().length];
+    private final LongAdder partialSearches = new LongAdder();
+    private final Map<String, LongAdder> rejectedRequests = new ConcurrentHashMap<>();
+
+    private final LongAdder documentsIndexed = new LongAdder();
+    private final LongAdder bytesParsed = new LongAdder();
+    private final LatencyHistogram commitDuration = new LatencyHistogram();
+    private final LongAdder merges = new LongAdder();
+    private final LongAdder mergedDocuments = new LongAdder();
+    private final AtomicInteger runningMerges = new AtomicInteger(0);
+    private final LatencyHistogram mergeDuration = new LatencyHistogram();
+
+    private final Map<String, Gauge> gauges = new ConcurrentHashMap<>();
+
+    // -------------------- Constructors --------------------
+
+    Metrics() {
+        for (int i = 0; i < searchStages.length; i++) {
+            searchStages[i] = new LatencyHistogram();
+        }
+        addGauge("jvm_heap_used_bytes", "Heap in use.",
+                () -> Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory());
+        addGauge("jvm_heap_max_bytes", "Maximum heap size.", () -> Runtime.getRuntime().maxMemory());
+        addGauge("index_merges_running", "Merges currently running.", runningMerges::get);
+    }
+
+    // -------------------- Public Methods --------------------
+
+    /**
+     * Counts a request the server turned away because the routes of the group were saturated.
+     */
+    public final void requestRejected(String routeGroup) {
+        rejectedRequests.computeIfAbsent(routeGroup, group -> new LongAdder()).increment();
+    }
+
+    /**
+     * Writes every metric in the Prometheus text exposition format, version 0.0.4.
+     */
+    public final void writeTo(Writer writer) throws IOException {
+        writeHeader(writer, "search_duration_seconds", "histogram", "Duration of searches, from the request to the serialized response.");
+        searchDuration.writeTo(writer, "search_duration_seconds", "");
+        writeHeader(writer, "search_stage_duration_seconds", "histogram", "Time spent in each stage of a search.");
+        for (SearchStage stage : SearchStage.values()) {
+            String label = "stage=\"" + stage.name().toLowerCase(Locale.ROOT) + "\"";
+            searchStages[stage.ordinal()].writeTo(writer, "search_stage_duration_seconds", label);
+        }
+        writeCounter(writer, "search_partial_total", "Searches that ran out of time and answered with partial results.", partialSearches.sum());
+        writeHeader(writer, "http_requests_rejected_total", "counter", "Requests turned away because too many were running or waiting.");
+        for (Map.Entry<String, LongAdder> rejected : new TreeMap<>(rejectedRequests).entrySet()) {
+            writer.write("http_requests_rejected_total{route=\"" + rejected.getKey() + "\"} " + rejected.getValue().sum() + "\n");
+        }
+
+        writeCounter(writer, "index_documents_indexed_total", "Books added to or updated in the index.", documentsIndexed.sum());
+        writeCounter(writer, "index_bytes_parsed_total", "Bytes of books read by the indexer.", bytesParsed.sum());
+        writeHeader(writer, "index_commit_duration_seconds", "histogram", "Duration of index commits.");
+        commitDuration.writeTo(writer, "index_commit_duration_seconds", "");
+        writeCounter(writer, "index_merges_total", "Segment merges completed.", merges.sum());
+        writeCounter(writer, "index_merged_documents_total", "Documents rewritten by segment merges.", mergedDocuments.sum());
+        writeHeader(writer, "index_merge_duration_seconds", "histogram", "Duration of segment merges.");
+        mergeDuration.writeTo(writer, "index_merge_duration_seconds", "");
+
+        for (Map.Entry<String, Gauge> gauge : new TreeMap<>(gauges).entrySet()) {
+            writeHeader(writer, gauge.getKey(), "gauge", gauge.getValue().help);
+            writer.write(gauge.getKey() + " " + gauge.getValue().value.getAsDouble() + "\n");
+        }
+    }
+
+    // -------------------- Default Methods --------------------
+
+    /**
+     * Records the time spent in each stage a finished search went through, and its total duration. Stages
+     * it skipped aren't recorded, so they don't pull the percentiles of that stage towards zero.
+     */
+    final void recordSearch(SearchTrace trace) {
+        searchDuration.record(trace.getElapsedNanos());
+        for (SearchStage stage : SearchStage.values()) {
+            if (trace.hasRun(stage)) {
+                searchStages[stage.ordinal()].record(trace.getStageNanos(stage));
+            }
+        }
+        if (trace.isPartial()) {
+            partialSearches.increment();
+        }
+    }
+
+    final void addGauge(String name, String help, DoubleSupplier value) {
+        gauges.put(name, new Gauge(help, value));
+    }
+
+    final void documentIndexed(long bytes) {
+        documentsIndexed.increment();
+        bytesParsed.add(bytes);
+    }
+
+    final void commitFinished(long nanos) {
+        commitDuration.record(nanos);
+    }
+
+    final void mergeStarted() {
+        runningMerges.incrementAndGet();
+    }
+
+    final void mergeFinished(long nanos, int documents) {
+        runningMerges.decrementAndGet();
+        merges.increment();
+        mergedDocuments.add(documents);
+        mergeDuration.record(nanos);
+    }
+
+    // -------------------- Private Static Methods --------------------
+
+    private static void writeHeader(Writer writer, String name, String type, String help) throws IOException {
+        writer.write("# HELP " + name + " " + help + "\n");
+        writer.write("# TYPE " + name + " " + type + "\n");
+    }
+
+    private static void writeCounter(Writer writer, String name, String help, long value) throws IOException {
+        writeHeader(writer, name, "counter", help);
+        writer.write(name + " " + value + "\n");
+    }
+
+    // -------------------- Inner Classes --------------------
+
+    private static final class Gauge {
+        private final String help;
+        private final DoubleSupplier value;
+
+        private Gauge(String help, DoubleSupplier value) {
+            this.help = help;
+            this.value = value;
+        }
+    }
+}
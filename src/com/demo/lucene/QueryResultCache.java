@@ -0,0 +1,154 @@
+package com.demo.lucene;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+
+/**
+ * A least-recently-used cache of search results, bounded both by the number of entries and by their
+ * estimated size. Every entry remembers the version of the index reader it was computed against and is
+ * only returned for that same version, so a refresh after new uploads can never serve stale results; the
+ * {@link BookSearcher} also clears the cache whenever it reopens, so outdated entries don't hold on to
+ * memory. Entries older than the time-to-live are dropped as well.
+ */
+final class QueryResultCache<V> {
+
+    // -------------------- Private Variables --------------------
+
+    private final int maxEntries;
+    private final long maxSizeInBytes;
+    private final long timeToLiveMillis;
+    private final ToLongFunction<V> sizeEstimator;
+
+    // guarded by this
+    private final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long sizeInBytes = 0L;
+
+    private final AtomicLong hits = new AtomicLong(0L);
+    private final AtomicLong misses = new AtomicLong(0L);
+    private final AtomicLong evictions = new AtomicLong(0L);
+
+    // -------------------- Constructors --------------------
+
+    QueryResultCache(int maxEntries, long maxSizeInBytes, long timeToLiveMillis, ToLongFunction<V> sizeEstimator) {
+        this.maxEntries = maxEntries;
+        this.maxSizeInBytes = maxSizeInBytes;
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.sizeEstimator = sizeEstimator;
+    }
+
+    // -------------------- Default Static Methods --------------------
+
+    /**
+     * Normalizes the text of a search so that trivially different spellings of the same search share a
+     * cache entry. Trailing whitespace is significant for prefix searches (it completes the last word), so
+     * it is kept as a single space there.
+     */
+    static String normalize(String text, SearchMode mode) {
+        String collapsed = text.toLowerCase(Locale.ROOT).replaceAll("\\s+", " ");
+        String trimmed = collapsed.trim();
+        if (mode == SearchMode.PREFIX && collapsed.endsWith(" ") && !trimmed.isEmpty()) {
+            trimmed += " ";
+        }
+        return mode.name() + ":" + trimmed;
+    }
+
+    // -------------------- Default Methods --------------------
+
+    /**
+     * Returns the cached value for the key if it was computed against the given index version and hasn't
+     * expired, or null otherwise.
+     */
+    final V get(String key, long indexVersion) {
+        if (maxEntries <= 0) {
+            return null;
+        }
+        synchronized (this) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null && entry.indexVersion == indexVersion
+                    && System.currentTimeMillis() - entry.createdMillis <= timeToLiveMillis) {
+                hits.incrementAndGet();
+                return entry.value;
+            }
+            if (entry != null) {
+                remove(key);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    final void put(String key, long indexVersion, V value) {
+        long size = sizeEstimator.applyAsLong(value) + key.length() * 2L;
+        if (maxEntries <= 0 || size > maxSizeInBytes) {
+            return;
+        }
+        synchronized (this) {
+            remove(key);
+            entries.put(key, new Entry<>(value, indexVersion, size));
+            sizeInBytes += size;
+
+            Iterator<Entry<V>> eldest = entries.values().iterator();
+            while ((entries.size() > maxEntries || sizeInBytes > maxSizeInBytes) && eldest.hasNext()) {
+                sizeInBytes -= eldest.next().sizeInBytes;
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    final boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    final synchronized void clear() {
+        entries.clear();
+        sizeInBytes = 0L;
+    }
+
+    final long getHits() {
+        return hits.get();
+    }
+
+    final long getMisses() {
+        return misses.get();
+    }
+
+    final long getEvictions() {
+        return evictions.get();
+    }
+
+    final synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    final synchronized long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    // -------------------- Private Methods --------------------
+
+    private void remove(String key) {
+        Entry<V> removed = entries.remove(key);
+        if (removed != null) {
+            sizeInBytes -= removed.sizeInBytes;
+        }
+    }
+
+    // -------------------- Inner Classes --------------------
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long indexVersion;
+        private final long sizeInBytes;
+        private final long createdMillis = System.currentTimeMillis();
+
+        private Entry(V value, long indexVersion, long sizeInBytes) {
+            this.value = value;
+            this.indexVersion = indexVersion;
+            this.sizeInBytes = sizeInBytes;
+        }
+    }
+}
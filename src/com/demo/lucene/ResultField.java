@@ -0,0 +1,35 @@
+package com.demo.lucene;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The parts of a search result a client can ask for. Leaving out {@link #CONTEXT} skips highlighting, so
+ * the contents of the hits are never read.
+ */
+public enum ResultField {
+    AUTHOR,
+    TITLE,
+    CONTEXT;
+
+    // -------------------- Public Static Methods --------------------
+
+    /**
+     * Parses a comma separated list of field names, e.g. {@code author,title}. An empty list means all
+     * fields.
+     */
+    public static Set<ResultField> parse(String fields) {
+        if (fields == null || fields.trim().isEmpty()) {
+            return EnumSet.allOf(ResultField.class);
+        }
+        Set<ResultField> parsed = EnumSet.noneOf(ResultField.class);
+        for (String field : fields.split(",")) {
+            try {
+                parsed.add(valueOf(field.trim().toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown result field '" + field.trim() + "'.", e);
+            }
+        }
+        return parsed;
+    }
+}
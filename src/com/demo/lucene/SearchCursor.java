@@ -0,0 +1,60 @@
+package com.demo.lucene;
+
+import org.apache.lucene.search.ScoreDoc;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Encodes the last hit of a page as an opaque cursor, which {@link BookSearcher} resumes from with
+ * {@code searchAfter}. Resuming only collects hits that rank after the cursor, so a deep page costs the same
+ * as the first one. Document ids can shift when the searcher reopens, so a page requested across a refresh
+ * may skip or repeat a few hits. The cursor includes the shard of the hit; cursors without one are from
+ * before the index was sharded and refer to the first shard.
+ */
+final class SearchCursor {
+
+    // -------------------- Default Static Methods --------------------
+
+    static String encode(ScoreDoc lastHit) {
+        String value = Float.floatToIntBits(lastHit.score) + ":" + lastHit.doc + ":" + lastHit.shardIndex;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the cursor wasn't produced by {@link #encode(ScoreDoc)}
+     */
+    static ScoreDoc decode(String cursor) {
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] split = value.split(":");
+            float score = Float.intBitsToFloat(Integer.parseInt(split[0]));
+            int doc = Integer.parseInt(split[1]);
+            int shardIndex = split.length > 2 ? Integer.parseInt(split[2]) : 0;
+            if (shardIndex < 0) {
+                throw new IllegalArgumentException("Negative shard " + shardIndex + ".");
+            }
+            return new ScoreDoc(doc, score, shardIndex);
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid search cursor '" + cursor + "'.", e);
+        }
+    }
+
+    /**
+     * The hit a single shard resumes from. Merged pages are ordered by score, then by shard, then by
+     * document, so shards before the shard of the cursor continue below its score (after their last
+     * document), and shards after it continue at its score (before their first document).
+     */
+    static ScoreDoc afterForShard(ScoreDoc after, int shardIndex, int shardMaxDoc) {
+        if (shardIndex < after.shardIndex) {
+            return new ScoreDoc(shardMaxDoc - 1, after.score);
+        } else if (shardIndex > after.shardIndex) {
+            return new ScoreDoc(-1, after.score);
+        }
+        return after;
+    }
+
+    // -------------------- Constructors --------------------
+
+    private SearchCursor() {}
+}
@@ -0,0 +1,42 @@
+package com.demo.lucene;
+
+/**
+ * How the text of a search is turned into a query, see {@link BookQueryBuilder}.
+ */
+public enum SearchMode {
+
+    /**
+     * The words have to appear next to each other, in order.
+     */
+    PHRASE,
+
+    /**
+     * Every word has to appear somewhere in the book.
+     */
+    ALL_TERMS,
+
+    /**
+     * Like {@link #ALL_TERMS}, except that the last word may be incomplete and matches any word it is a
+     * prefix of. Meant for search-as-you-type.
+     */
+    PREFIX;
+
+    // -------------------- Public Static Methods --------------------
+
+    public static SearchMode parse(String mode) {
+        if (mode == null || mode.isEmpty()) {
+            return PHRASE;
+        }
+        switch (mode.toLowerCase()) {
+            case "phrase":
+                return PHRASE;
+            case "all":
+            case "all_terms":
+                return ALL_TERMS;
+            case "prefix":
+                return PREFIX;
+            default:
+                throw new IllegalArgumentException("Unknown search mode '" + mode + "'.");
+        }
+    }
+}
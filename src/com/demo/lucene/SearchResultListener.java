@@ -0,0 +1,21 @@
+package com.demo.lucene;
+
+import com.demo.web.SearchResult;
+
+import java.io.IOException;
+
+/**
+ * Receives the results of a search one at a time, as soon as each has been highlighted, so they can be
+ * written out while the rest of the page is still being prepared.
+ */
+public interface SearchResultListener {
+
+    /**
+     * Called once per search, after the hits have been collected and before the first result.
+     *
+     * @param nextCursor the cursor of the next page, or null if this is the last page
+     */
+    void onPage(int totalHits, String nextCursor) throws IOException;
+
+    void onResult(SearchResult result) throws IOException;
+}
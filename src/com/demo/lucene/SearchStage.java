@@ -0,0 +1,12 @@
+package com.demo.lucene;
+
+/**
+ * The stages of a search that are timed separately, see {@link SearchTrace}.
+ */
+public enum SearchStage {
+    PARSE,
+    SEARCH,
+    LOAD_FIELDS,
+    HIGHLIGHT,
+    SERIALIZE
+}
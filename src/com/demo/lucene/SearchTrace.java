@@ -0,0 +1,134 @@
+package com.demo.lucene;
+
+import org.apache.lucene.search.Query;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the time a single search spends in each {@link SearchStage}, in nanoseconds, along with what was
+ * searched for. A trace is created when the request arrives, filled in by the {@link BookSearcher} and the
+ * server, and handed back to {@link BookSearcher#finishSearch(SearchTrace)} once the response has been
+ * serialized. It is only used by the thread handling the search until then.
+ * <p>
+ * A trace can carry the deadline of the search, counted from the arrival of the request, see
+ * {@link #setTimeoutMillis(long)}. Collection and highlighting stop once it has passed and the search
+ * answers with the results it has so far, marked as {@link #isPartial() partial}.
+ */
+public final class SearchTrace {
+
+    // -------------------- Private Variables --------------------
+
+    private final long startNanos = System.nanoTime();
+    private final long[] stageNanos = new long[SearchStage.values().length];
+    private final boolean[] stagesRun = new boolean[SearchStage.values().length];
+    private long finishedNanos = -1L;
+    private long deadlineNanos;
+    private boolean hasDeadline = false;
+    private boolean partial = false;
+    private String text;
+    private SearchMode mode;
+    private Query query;
+    private int totalHits;
+    private boolean cached;
+
+    // -------------------- Public Methods --------------------
+
+    /**
+     * Adds the time elapsed since {@code startNanos}, a value of {@link System#nanoTime()}, to the stage.
+     * Stages that run once per hit add up over the page.
+     */
+    public final void addSince(SearchStage stage, long startNanos) {
+        stageNanos[stage.ordinal()] += System.nanoTime() - startNanos;
+        stagesRun[stage.ordinal()] = true;
+    }
+
+    public final long getStageNanos(SearchStage stage) {
+        return stageNanos[stage.ordinal()];
+    }
+
+    /**
+     * Whether the search went through the stage at all; a cached search skips most of them, and a search
+     * without context skips highlighting.
+     */
+    public final boolean hasRun(SearchStage stage) {
+        return stagesRun[stage.ordinal()];
+    }
+
+    /**
+     * The time since the trace was created, or until the search finished.
+     */
+    public final long getElapsedNanos() {
+        return (finishedNanos < 0L ? System.nanoTime() : finishedNanos) - startNanos;
+    }
+
+    /**
+     * Sets the deadline of the search to the given time after the trace was created, or removes it if the
+     * timeout is 0.
+     */
+    public final void setTimeoutMillis(long timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("Search timeout must not be negative.");
+        }
+        this.hasDeadline = timeoutMillis > 0;
+        this.deadlineNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * Whether the search ran out of time and some results are missing or have no snippet.
+     */
+    public final boolean isPartial() {
+        return partial;
+    }
+
+    // -------------------- Default Methods --------------------
+
+    final boolean hasDeadline() {
+        return hasDeadline;
+    }
+
+    final boolean isPastDeadline() {
+        return hasDeadline && System.nanoTime() - deadlineNanos > 0;
+    }
+
+    final void setPartial() {
+        this.partial = true;
+    }
+
+    final void finish() {
+        finishedNanos = System.nanoTime();
+    }
+
+    final void setSearch(String text, SearchMode mode) {
+        this.text = text;
+        this.mode = mode;
+    }
+
+    final void setQuery(Query query) {
+        this.query = query;
+    }
+
+    final void setResult(int totalHits, boolean cached) {
+        this.totalHits = totalHits;
+        this.cached = cached;
+    }
+
+    final String getText() {
+        return text;
+    }
+
+    final SearchMode getMode() {
+        return mode;
+    }
+
+    final Query getQuery() {
+        return query;
+    }
+
+    final int getTotalHits() {
+        return totalHits;
+    }
+
+    final boolean isCached() {
+        return cached;
+    }
+}
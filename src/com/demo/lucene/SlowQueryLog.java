@@ -0,0 +1,215 @@
+package com.demo.lucene;
+
+import org.apache.lucene.search.Query;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes searches that took longer than a threshold to a log file, one line each, with the text, the
+ * Lucene query, the hit count and the time spent in each stage. Searches are handed to a background
+ * thread through a bounded queue, so a slow disk never holds up a request; when the queue is full the
+ * entry is dropped and counted instead. The query is logged as each shard expands it; the background
+ * thread rewrites it against the readers that are current by then, so no search waits for it. The file
+ * is rolled over once it reaches the maximum size, keeping a fixed number of older files as
+ * {@code <name>.1}, {@code <name>.2} and so on.
+ */
+final class SlowQueryLog implements Closeable {
+
+    // -------------------- Private Statics --------------------
+
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final SearchTrace STOP = new SearchTrace();
+
+    // -------------------- Private Variables --------------------
+
+    private final long thresholdNanos;
+    private final Path path;
+    private final long maxFileSizeInBytes;
+    private final int maxFiles;
+    private final QueryRewriter rewriter;
+    private final BlockingQueue<SearchTrace> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong dropped = new AtomicLong(0L);
+    private final Thread thread;
+
+    // only touched by the writer thread
+    private Writer writer;
+    private long fileSizeInBytes;
+
+    // -------------------- Constructors --------------------
+
+    SlowQueryLog(IndexSettings settings, QueryRewriter rewriter) {
+        this.rewriter = rewriter;
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(settings.getSlowQueryThresholdMillis());
+        this.path = settings.getSlowQueryLogPath();
+        this.maxFileSizeInBytes = settings.getSlowQueryLogMaxSizeInBytes();
+        this.maxFiles = settings.getSlowQueryLogMaxFiles();
+        this.thread = new Thread(this::run, "slow-query-log");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    // -------------------- Default Methods --------------------
+
+    /**
+     * Logs the search if it took at least the threshold. Never blocks.
+     */
+    final void record(SearchTrace trace) {
+        if (trace.getElapsedNanos() >= thresholdNanos && !queue.offer(trace)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    final long getDropped() {
+        return dropped.get();
+    }
+
+    // -------------------- Overridden Methods --------------------
+
+    /**
+     * Writes the searches that are still queued and stops the writer thread.
+     */
+    @Override
+    public final void close() throws IOException {
+        try {
+            queue.put(STOP);
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // -------------------- Private Methods --------------------
+
+    private void run() {
+        try {
+            SearchTrace trace;
+            while ((trace = queue.take()) != STOP) {
+                try {
+                    write(format(trace));
+                    if (queue.isEmpty()) {
+                        writer.flush();
+                    }
+                } catch (IOException e) {
+                    System.err.println("Failed to write to the slow query log " + path + ": " + e.getMessage());
+                    closeWriter();
+                }
+            }
+        } catch (InterruptedException e) {
+            // shutting down
+        } finally {
+            closeWriter();
+        }
+    }
+
+    private void write(String line) throws IOException {
+        if (writer == null) {
+            open();
+        } else if (fileSizeInBytes >= maxFileSizeInBytes) {
+            closeWriter();
+            roll();
+            open();
+        }
+        writer.write(line);
+        fileSizeInBytes += line.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private void open() throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        fileSizeInBytes = Files.exists(path) ? Files.size(path) : 0L;
+        writer = new BufferedWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+    }
+
+    private void roll() throws IOException {
+        Files.deleteIfExists(rolledPath(maxFiles));
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            if (Files.exists(rolledPath(i))) {
+                Files.move(rolledPath(i), rolledPath(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(path, rolledPath(1), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Path rolledPath(int index) {
+        return path.resolveSibling(path.getFileName() + "." + index);
+    }
+
+    private void closeWriter() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException ignored) {
+            }
+            writer = null;
+        }
+    }
+
+    private String format(SearchTrace trace) {
+        StringBuilder line = new StringBuilder(256);
+        line.append(Instant.now())
+                .append(" took_ms=").append(millis(trace.getElapsedNanos()))
+                .append(" mode=").append(trace.getMode())
+                .append(" hits=").append(trace.getTotalHits())
+                .append(" cached=").append(trace.isCached())
+                .append(" partial=").append(trace.isPartial());
+        for (SearchStage stage : SearchStage.values()) {
+            line.append(' ').append(stage.name().toLowerCase(Locale.ROOT)).append("_ms=")
+                    .append(millis(trace.getStageNanos(stage)));
+        }
+        line.append(" text=").append(quote(trace.getText()))
+                .append(" query=").append(quote(rewrite(trace.getQuery())))
+                .append('\n');
+        return line.toString();
+    }
+
+    private String rewrite(Query query) {
+        if (query == null) {
+            return null;
+        }
+        try {
+            return rewriter.rewrite(query);
+        } catch (IOException | RuntimeException e) {
+            // e.g. the searcher has been closed, the query as it was parsed still helps
+            return query.toString();
+        }
+    }
+
+    // -------------------- Private Static Methods --------------------
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static String quote(String value) {
+        if (value == null) {
+            return "-";
+        }
+        return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n").replace("\r", "\\r") + '"';
+    }
+
+    // -------------------- Inner Classes --------------------
+
+    /**
+     * Describes the query as the index expands it.
+     */
+    interface QueryRewriter {
+        String rewrite(Query query) throws IOException;
+    }
+}
@@ -0,0 +1,48 @@
+package com.demo.lucene;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.LowerCaseFilter;
+import org.apache.lucene.analysis.ngram.EdgeNGramTokenFilter;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+
+/**
+ * Analyzer for the {@code suggest} field, which holds the title and author of every book. At index time
+ * each word is expanded into all of its leading prefixes ("pride" becomes "p", "pr", "pri", ...), so at
+ * query time a partially typed word is a plain term lookup rather than a scan of the term dictionary.
+ */
+final class SuggestAnalyzer extends Analyzer {
+
+    // -------------------- Statics --------------------
+
+    /**
+     * Longest prefix that is indexed. Longer words typed by the user are cut down to this length.
+     */
+    static final int MAX_PREFIX_LENGTH = 15;
+
+    // -------------------- Private Variables --------------------
+
+    private final boolean indexing;
+
+    // -------------------- Constructors --------------------
+
+    /**
+     * @param indexing whether to expand words into their prefixes, which is only wanted when indexing
+     */
+    SuggestAnalyzer(boolean indexing) {
+        this.indexing = indexing;
+    }
+
+    // -------------------- Overridden Methods --------------------
+
+    @Override
+    protected final TokenStreamComponents createComponents(String fieldName) {
+        Tokenizer source = new StandardTokenizer();
+        TokenStream result = new LowerCaseFilter(source);
+        if (indexing) {
+            result = new EdgeNGramTokenFilter(result, 1, MAX_PREFIX_LENGTH);
+        }
+        return new TokenStreamComponents(source, result);
+    }
+}
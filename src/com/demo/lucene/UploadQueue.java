@@ -0,0 +1,331 @@
+package com.demo.lucene;
+
+import com.demo.web.UploadStatus;
+import org.apache.lucene.util.IOUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Takes uploaded books off the request thread. An upload is streamed into a spool file, synced to disk and
+ * only then acknowledged with a job id; a single worker indexes the spooled books in batches with one
+ * commit per batch, and deletes their spool files once the commit is durable. Spool files that are still
+ * there at startup are queued again, so an acknowledged upload is never lost. Each job is indexed under a
+ * key derived from its id, so a batch that is indexed again after a crash replaces its books instead of
+ * adding them twice.
+ * <pre>
+ *     &lt;id&gt;.partial   being received, deleted at startup
+ *     &lt;id&gt;.book      acknowledged, waiting to be indexed and committed
+ *     &lt;id&gt;.failed    rejected as malformed, kept for inspection
+ * </pre>
+ */
+public final class UploadQueue implements Closeable {
+
+    // -------------------- Private Statics --------------------
+
+    private static final String PARTIAL_SUFFIX = ".partial";
+    private static final String BOOK_SUFFIX = ".book";
+    private static final String FAILED_SUFFIX = ".failed";
+    private static final int MAX_FINISHED_JOBS = 1000;
+    private static final long POLL_MILLIS = 250L;
+    private static final long RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    // -------------------- Private Variables --------------------
+
+    private final BookIndexer indexer;
+    private final Path spoolPath;
+    private final long maxUploadBytes;
+    private final int maxQueuedJobs;
+    private final int batchSize;
+    private final BlockingDeque<String> queue = new LinkedBlockingDeque<>();
+    private final Map<String, UploadStatus> activeJobs = new ConcurrentHashMap<>();
+    private final Map<String, UploadStatus> finishedJobs = Collections.synchronizedMap(new LinkedHashMap<String, UploadStatus>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, UploadStatus> eldest) {
+            return size() > MAX_FINISHED_JOBS;
+        }
+    });
+    private final Thread worker;
+    private volatile boolean closed = false;
+
+    // -------------------- Constructors --------------------
+
+    public UploadQueue(BookIndexer indexer, IndexSettings settings) throws IOException {
+        this.indexer = indexer;
+        this.spoolPath = settings.getUploadSpoolPath();
+        this.maxUploadBytes = settings.getUploadMaxSizeInBytes();
+        this.maxQueuedJobs = settings.getUploadMaxQueuedJobs();
+        this.batchSize = settings.getUploadBatchSize();
+        Files.createDirectories(spoolPath);
+        recoverSpooledJobs();
+        indexer.getMetrics().addGauge("upload_queued_jobs", "Uploaded books waiting to be indexed.", queue::size);
+
+        this.worker = new Thread(this::indexSpooledJobs, "upload-indexer");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    // -------------------- Public Methods --------------------
+
+    /**
+     * Spools the book read from the stream and queues it for indexing. Returns the id of the job once the
+     * book is safely on disk.
+     *
+     * @throws IllegalArgumentException if the book is empty or larger than the upload limit
+     * @throws RejectedExecutionException if too many books are waiting to be indexed
+     */
+    public final String submit(InputStream in) throws IOException {
+        if (closed) {
+            throw new RejectedExecutionException("The server is shutting down.");
+        }
+        if (queue.size() >= maxQueuedJobs) {
+            throw new RejectedExecutionException("Too many uploads are waiting to be indexed, please try again later.");
+        }
+
+        String jobId = UUID.randomUUID().toString();
+        Path partial = spoolFile(jobId, PARTIAL_SUFFIX);
+        try {
+            long size;
+            try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                size = copy(in, Channels.newOutputStream(channel));
+                channel.force(true);
+            }
+            if (size == 0) {
+                throw new IllegalArgumentException("No content was received on the server. Did you upload an empty file?");
+            }
+            Files.move(partial, spoolFile(jobId, BOOK_SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+            IOUtils.fsync(spoolPath, true);
+        } finally {
+            Files.deleteIfExists(partial);
+        }
+
+        activeJobs.put(jobId, new UploadStatus(jobId, UploadState.QUEUED, null));
+        queue.addLast(jobId);
+        return jobId;
+    }
+
+    /**
+     * Returns the status of the job, or null if there is no such job. Jobs that have been indexed are
+     * forgotten after a while, and at a restart.
+     */
+    public final UploadStatus getStatus(String jobId) {
+        if (!isJobId(jobId)) {
+            return null;
+        }
+        UploadStatus status = activeJobs.get(jobId);
+        if (status == null) {
+            status = finishedJobs.get(jobId);
+        }
+        if (status == null && Files.exists(spoolFile(jobId, FAILED_SUFFIX))) {
+            status = new UploadStatus(jobId, UploadState.FAILED, null);
+        }
+        return status;
+    }
+
+    // -------------------- Overridden Methods --------------------
+
+    /**
+     * Stops the worker after the batch it is indexing. Books that are still queued stay in the spool and
+     * are indexed after the next start.
+     */
+    @Override
+    public final void close() throws IOException {
+        closed = true;
+        try {
+            worker.join(TimeUnit.MINUTES.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // -------------------- Private Methods --------------------
+
+    private void recoverSpooledJobs() throws IOException {
+        List<Path> spooled = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(spoolPath)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(PARTIAL_SUFFIX)) {
+                    // never acknowledged, so nobody is waiting for it
+                    Files.delete(file);
+                } else if (name.endsWith(BOOK_SUFFIX) && isJobId(name.substring(0, name.length() - BOOK_SUFFIX.length()))) {
+                    spooled.add(file);
+                }
+            }
+        }
+        spooled.sort(Comparator.comparing(UploadQueue::lastModifiedMillis));
+        for (Path file : spooled) {
+            String name = file.getFileName().toString();
+            String jobId = name.substring(0, name.length() - BOOK_SUFFIX.length());
+            activeJobs.put(jobId, new UploadStatus(jobId, UploadState.QUEUED, null));
+            queue.addLast(jobId);
+        }
+        if (!spooled.isEmpty()) {
+            System.err.println("Queued " + spooled.size() + " uploaded books left in " + spoolPath + ".");
+        }
+    }
+
+    private void indexSpooledJobs() {
+        List<String> batch = new ArrayList<>(batchSize);
+        while (!closed) {
+            try {
+                String first = queue.pollFirst(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                indexBatch(batch);
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Indexes the books of the batch and commits them. Only books that are rejected as malformed are set
+     * aside; if the index fails or the commit fails, the books that are still in the batch go back to the
+     * head of the queue with their spool files and are retried after a delay.
+     */
+    private void indexBatch(List<String> batch) throws InterruptedException {
+        List<String> indexed = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            String jobId = batch.get(i);
+            activeJobs.put(jobId, new UploadStatus(jobId, UploadState.INDEXING, null));
+            try (InputStream in = Files.newInputStream(spoolFile(jobId, BOOK_SUFFIX))) {
+                indexer.indexUpload(BookIndexer.uploadKey(jobId), in);
+                indexed.add(jobId);
+            } catch (NoSuchFileException e) {
+                System.err.println("The spool file of uploaded book " + jobId + " is gone.");
+                finish(new UploadStatus(jobId, UploadState.FAILED, "The uploaded book is no longer on the server."));
+            } catch (IllegalArgumentException e) {
+                // the book or its fields were rejected, which no retry can fix
+                System.err.println("Failed to index uploaded book " + jobId + ": " + e.getMessage());
+                setAside(jobId, e);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Failed to index uploaded book " + jobId + ", retrying in "
+                        + TimeUnit.MILLISECONDS.toSeconds(RETRY_DELAY_MILLIS) + "s.");
+                e.printStackTrace(System.err);
+                // the books indexed so far aren't committed, and indexing them again replaces them
+                indexed.addAll(batch.subList(i, batch.size()));
+                requeue(indexed);
+                return;
+            }
+        }
+        if (indexed.isEmpty()) {
+            return;
+        }
+
+        try {
+            indexer.commitUploads();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to commit " + indexed.size() + " uploaded books, retrying in "
+                    + TimeUnit.MILLISECONDS.toSeconds(RETRY_DELAY_MILLIS) + "s.");
+            e.printStackTrace(System.err);
+            requeue(indexed);
+            return;
+        }
+
+        for (String jobId : indexed) {
+            try {
+                Files.deleteIfExists(spoolFile(jobId, BOOK_SUFFIX));
+            } catch (IOException e) {
+                // indexed again at the next start, which replaces the same book
+                System.err.println("Failed to delete the spool file of uploaded book " + jobId + ": " + e.getMessage());
+            }
+            finish(new UploadStatus(jobId, UploadState.INDEXED, null));
+        }
+    }
+
+    /**
+     * Puts the jobs back at the head of the queue in their order and waits before the worker takes them
+     * again, so an index that keeps failing isn't retried in a tight loop.
+     */
+    private void requeue(List<String> jobIds) throws InterruptedException {
+        for (int i = jobIds.size() - 1; i >= 0; i--) {
+            String jobId = jobIds.get(i);
+            activeJobs.put(jobId, new UploadStatus(jobId, UploadState.QUEUED, null));
+            queue.addFirst(jobId);
+        }
+        Thread.sleep(RETRY_DELAY_MILLIS);
+    }
+
+    private void setAside(String jobId, Exception cause) {
+        try {
+            Files.move(spoolFile(jobId, BOOK_SUFFIX), spoolFile(jobId, FAILED_SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Failed to set aside uploaded book " + jobId + ": " + e.getMessage());
+        }
+        finish(new UploadStatus(jobId, UploadState.FAILED, cause.getMessage()));
+    }
+
+    private void finish(UploadStatus status) {
+        finishedJobs.put(status.getJobId(), status);
+        activeJobs.remove(status.getJobId());
+    }
+
+    private long copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        long size = 0L;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            size += read;
+            if (size > maxUploadBytes) {
+                throw new IllegalArgumentException(String.format("Uploads are limited to %.1f MB.", maxUploadBytes / (1024d * 1024d)));
+            }
+            out.write(buffer, 0, read);
+        }
+        out.flush();
+        return size;
+    }
+
+    private Path spoolFile(String jobId, String suffix) {
+        return spoolPath.resolve(jobId + suffix);
+    }
+
+    // -------------------- Private Static Methods --------------------
+
+    /**
+     * Job ids are UUIDs; checking that keeps ids from the request out of file names.
+     */
+    private static boolean isJobId(String jobId) {
+        try {
+            return jobId != null && UUID.fromString(jobId).toString().equals(jobId);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static long lastModifiedMillis(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+}
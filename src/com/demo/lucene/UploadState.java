@@ -0,0 +1,27 @@
+package com.demo.lucene;
+
+/**
+ * Where an uploaded book is on its way through the {@link UploadQueue}.
+ */
+public enum UploadState {
+
+    /**
+     * The book is spooled to disk and waits for the indexing worker.
+     */
+    QUEUED,
+
+    /**
+     * The book is part of the batch being indexed.
+     */
+    INDEXING,
+
+    /**
+     * The book is committed to the index and will be searchable after the next refresh.
+     */
+    INDEXED,
+
+    /**
+     * The book couldn't be indexed; its spool file is kept for inspection.
+     */
+    FAILED
+}
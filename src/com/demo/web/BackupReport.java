@@ -0,0 +1,72 @@
+package com.demo.web;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * What a backup or a restore of the index copied, see {@link com.demo.lucene.IndexBackup}. Files that
+ * were already in place from the previous run are reused instead of copied, so on an index that changes
+ * slowly most of the bytes are reused.
+ */
+public final class BackupReport implements Jsonable {
+
+    // -------------------- Private Variables --------------------
+
+    private final String path;
+    private int filesCopied;
+    private long bytesCopied;
+    private int filesReused;
+    private long bytesReused;
+    private int filesDeleted;
+    private long elapsedMillis;
+
+    // -------------------- Constructors --------------------
+
+    /**
+     * @param path the directory the index was copied to
+     */
+    public BackupReport(String path) {
+        this.path = path;
+    }
+
+    // -------------------- Public Methods --------------------
+
+    public final void fileCopied(long bytes) {
+        filesCopied++;
+        bytesCopied += bytes;
+    }
+
+    public final void fileReused(long bytes) {
+        filesReused++;
+        bytesReused += bytes;
+    }
+
+    public final void fileDeleted() {
+        filesDeleted++;
+    }
+
+    public final void setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    // -------------------- Overridden Methods --------------------
+
+    @Override
+    public final JsonElement toJson() {
+        JsonObject object = new JsonObject();
+        object.addProperty("path", path);
+        object.addProperty("files_copied", filesCopied);
+        object.addProperty("bytes_copied", bytesCopied);
+        object.addProperty("files_reused", filesReused);
+        object.addProperty("bytes_reused", bytesReused);
+        object.addProperty("files_deleted", filesDeleted);
+        object.addProperty("elapsed_time", elapsedMillis);
+        return object;
+    }
+
+    @Override
+    public final String toString() {
+        return filesCopied + " files copied (" + bytesCopied + " bytes), " + filesReused + " reused ("
+                + bytesReused + " bytes), " + filesDeleted + " deleted in " + elapsedMillis + "ms";
+    }
+}
@@ -2,15 +2,30 @@ package com.demo.web;
 
 import com.demo.lucene.BookIndexer;
 import com.demo.lucene.BookSearcher;
+import com.demo.lucene.DirectoryType;
+import com.demo.lucene.HighlighterType;
+import com.demo.lucene.IndexBackup;
+import com.demo.lucene.IndexProfile;
+import com.demo.lucene.IndexSettings;
+import com.demo.lucene.Metrics;
+import com.demo.lucene.ResultField;
+import com.demo.lucene.SearchMode;
+import com.demo.lucene.SearchTrace;
+import com.demo.lucene.UploadQueue;
 import spark.Spark;
 
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletRequestWrapper;
+
 import java.io.*;
-import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
 
 import static spark.Spark.*;
 
@@ -21,23 +36,77 @@ public final class BookSearchServer {
 
     // -------------------- Private Statics --------------------
 
-    private static final Path RAW_DATA_PATH = Paths.get("books");
-    private static final Path INDEX_PATH = Paths.get("index");
+    private static final String RAW_DATA_PATH = "books";
+    private static final String INDEX_PATH = "index";
+    private static final int DEFAULT_PORT = 9090;
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int DEFAULT_SEARCH_MAX_CONCURRENT = Math.max(2, Runtime.getRuntime().availableProcessors() * 2);
+    private static final int DEFAULT_SEARCH_MAX_QUEUED = 64;
+    private static final int DEFAULT_STATS_MAX_CONCURRENT = 4;
+    private static final int DEFAULT_STATS_MAX_QUEUED = 16;
+    private static final int DEFAULT_UPLOAD_MAX_CONCURRENT = 4;
+    private static final int DEFAULT_UPLOAD_MAX_QUEUED = 16;
+    private static final long DEFAULT_QUEUE_WAIT_MILLIS = 1000L;
+    private static final long DEFAULT_SEARCH_TIMEOUT_MILLIS = 5000L;
 
     // -------------------- Main --------------------
 
     public static void main(String[] args) throws Exception {
+        Map<String, String> arguments = parseArguments(args);
+
         // configure spark
         staticFileLocation("/WEB-INF");
-        port(9090);
+        port(Integer.parseInt(arguments.getOrDefault("port", Integer.toString(DEFAULT_PORT))));
 
         // set up lucene objects
-        BookSearcher searcher = new BookSearcher(INDEX_PATH);
-        BookIndexer indexer = new BookIndexer(RAW_DATA_PATH, INDEX_PATH);
+        IndexSettings settings = createSettings(arguments);
+        Path rawDataPath = Paths.get(arguments.getOrDefault("booksPath", RAW_DATA_PATH));
+        Path indexPath = Paths.get(arguments.getOrDefault("indexPath", INDEX_PATH));
+        String startupIndexing = arguments.getOrDefault("indexAtStartup", "true");
+        if (startupIndexing.equals("restore")) {
+            // start from the last backup, then catch up with the books that changed since
+            BackupReport restored = IndexBackup.restore(indexPath, settings);
+            if (restored != null) {
+                System.err.println("Restored the index from the backup: " + restored + ".");
+                startupIndexing = "incremental";
+            } else {
+                startupIndexing = BookIndexer.indexExists(indexPath) ? "incremental" : "true";
+            }
+        }
+        BookIndexer indexer = new BookIndexer(rawDataPath, indexPath, settings);
+        BookSearcher searcher = new BookSearcher(indexer, settings);
+        indexer.addCommitListener(searcher::maybeRefresh);
+        UploadQueue uploads = new UploadQueue(indexer, settings);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> closeQuietly(uploads, searcher, indexer)));
 
-        if (performStartupIndexing(args)) {
+        if (startupIndexing.equals("incremental")) {
+            indexer.performIncrementalIndexing();
+        } else if (Boolean.parseBoolean(startupIndexing)) {
             indexer.performFullIndexing();
         }
+        if (Boolean.parseBoolean(arguments.get("watchBooks"))) {
+            indexer.startWatching();
+        }
+
+        // admission control, so a spike is turned away early instead of slowing down every request
+        Metrics metrics = indexer.getMetrics();
+        long queueWaitMillis = Long.parseLong(arguments.getOrDefault("queueWaitMillis", Long.toString(DEFAULT_QUEUE_WAIT_MILLIS)));
+        RouteLimiter searchLimiter = new RouteLimiter("search",
+                intArgument(arguments, "searchMaxConcurrent", DEFAULT_SEARCH_MAX_CONCURRENT),
+                intArgument(arguments, "searchMaxQueued", DEFAULT_SEARCH_MAX_QUEUED),
+                queueWaitMillis, metrics);
+        RouteLimiter statsLimiter = new RouteLimiter("stats",
+                intArgument(arguments, "statsMaxConcurrent", DEFAULT_STATS_MAX_CONCURRENT),
+                intArgument(arguments, "statsMaxQueued", DEFAULT_STATS_MAX_QUEUED),
+                queueWaitMillis, metrics);
+        RouteLimiter uploadLimiter = new RouteLimiter("upload",
+                intArgument(arguments, "uploadMaxConcurrent", DEFAULT_UPLOAD_MAX_CONCURRENT),
+                intArgument(arguments, "uploadMaxQueued", DEFAULT_UPLOAD_MAX_QUEUED),
+                queueWaitMillis, metrics);
+        // a backup copies the whole index, so it must not hold a stats slot, and two copies into the same
+        // backup directory at once would delete each other's files
+        RouteLimiter backupLimiter = new RouteLimiter("backup", 1, 0, queueWaitMillis, metrics);
+        long searchTimeoutMillis = Long.parseLong(arguments.getOrDefault("searchTimeoutMillis", Long.toString(DEFAULT_SEARCH_TIMEOUT_MILLIS)));
 
         // server routes
         exception(Exception.class, (e, request, response) -> {
@@ -61,48 +130,283 @@ public final class BookSearchServer {
             );
         });
 
+        exception(IllegalArgumentException.class, (e, request, response) -> {
+            response.status(400);
+            response.type("text/plain");
+            response.body(e.getMessage());
+        });
+
+        exception(RejectedExecutionException.class, (e, request, response) -> {
+            response.status(503);
+            response.header("Retry-After", "1");
+            response.type("text/plain");
+            response.body(e.getMessage());
+        });
+
         get("/", "text/html", (request, response) -> {
             File indexPage = new File(Spark.class.getResource("/WEB-INF/index.html").toURI());
             byte[] encoded = Files.readAllBytes(indexPage.toPath());
             return new String(encoded, StandardCharsets.UTF_8);
         });
 
-        get("/stats", "application/json", (request, response) -> {
+        get("/stats", "application/json", statsLimiter.limit((request, response) -> {
             return searcher.getIndexStats();
-        }, new ResultJsonTransformer());
+        }), new ResultJsonTransformer());
+
+        get("/stats/cache", "application/json", statsLimiter.limit((request, response) -> {
+            return searcher.getQueryCacheStats();
+        }), new ResultJsonTransformer());
+
+        get("/stats/index", "application/json", statsLimiter.limit((request, response) -> {
+            return searcher.getIndexSizeReport();
+        }), new ResultJsonTransformer());
+
+        post("/backup", "application/json", backupLimiter.limit((request, response) -> {
+            return indexer.backup();
+        }), new ResultJsonTransformer());
 
         get("/search/:searchText", "application/json", (request, response) -> {
+            // the deadline counts from the arrival of the request, including the wait for a slot
+            SearchTrace trace = new SearchTrace();
+            trace.setTimeoutMillis(searchTimeoutMillis);
+            searchLimiter.acquire();
+            try {
+                SearchMode mode = SearchMode.parse(request.queryParams("mode"));
+                response.type("application/json");
+                SearchResponseWriter writer = new SearchResponseWriter(response.raw().getOutputStream(), trace);
+                try {
+                    searcher.search(
+                            request.params(":searchText"),
+                            mode,
+                            parsePageSize(request.queryParams("size")),
+                            request.queryParams("cursor"),
+                            ResultField.parse(request.queryParams("fields")),
+                            trace,
+                            writer
+                    );
+                } catch (Exception e) {
+                    // once the header is out, the status can't change and the error handler would corrupt the JSON
+                    if (!writer.abort()) {
+                        throw e;
+                    }
+                    System.err.println("Search failed after the response was started.");
+                    e.printStackTrace(System.err);
+                    searcher.finishSearch(trace);
+                    return "";
+                }
+                writer.finish();
+                searcher.finishSearch(trace);
+            } finally {
+                searchLimiter.release();
+            }
+            // the response has already been written
+            return "";
+        });
+
+        get("/metrics", statsLimiter.limit((request, response) -> {
+            StringWriter writer = new StringWriter();
+            metrics.writeTo(writer);
+            response.type("text/plain; version=0.0.4");
+            return writer.toString();
+        }));
+
+        get("/suggest/:text", "application/json", searchLimiter.limit((request, response) -> {
             long startTime = System.currentTimeMillis();
-            Set<SearchResult> searchResults = searcher.search(request.params(":searchText"));
-            long endTime = System.currentTimeMillis();
-            long elapsedTime = Math.max(0L, endTime - startTime);
-            return new SearchResultContainer(elapsedTime, searchResults);
-        }, new ResultJsonTransformer());
-
-        post("/upload", "multipart/form-data", (request, response) -> {
-            String body = request.body();
-            if (body == null || body.isEmpty()) {
-                response.status(400);
-                return "No content was received on the server. Did you upload an empty file?";
+            Set<Suggestion> suggestions = searcher.suggest(request.params(":text"));
+            long elapsedTime = Math.max(0L, System.currentTimeMillis() - startTime);
+            return new SuggestionContainer(elapsedTime, suggestions);
+        }), new ResultJsonTransformer());
+
+        post("/upload", uploadLimiter.limit((request, response) -> {
+            try (InputStream in = bodyStream(request.raw())) {
+                String jobId = uploads.submit(in);
+                response.status(202);
+                response.header("Location", "/upload/" + jobId);
+                response.type("application/json");
+                return uploads.getStatus(jobId);
             }
+        }), new ResultJsonTransformer());
 
-            try (InputStream in = new ByteArrayInputStream(body.getBytes(Charset.forName("UTF-8")))) {
-                indexer.addToIndex(in);
-                response.status(200);
-                return "Thank you for the upload. The book will be searchable shortly.";
+        get("/upload/:jobId", "application/json", statsLimiter.limit((request, response) -> {
+            UploadStatus status = uploads.getStatus(request.params(":jobId"));
+            if (status == null) {
+                halt(404, "Unknown upload '" + request.params(":jobId") + "'.");
             }
-        });
+            return status;
+        }), new ResultJsonTransformer());
     }
 
     // -------------------- Private Methods --------------------
 
-    private static boolean performStartupIndexing(String[] args) {
-        if (args.length == 1) {
-            String[] arg = args[0].split("=");
-            if (arg[0].equals("indexAtStartup")) {
-                return Boolean.parseBoolean(arg[1]);
+    private static Map<String, String> parseArguments(String[] args) {
+        Map<String, String> arguments = new HashMap<>();
+        for (String arg : args) {
+            String[] split = arg.split("=", 2);
+            if (split.length == 2) {
+                arguments.put(split[0], split[1]);
+            }
+        }
+        return arguments;
+    }
+
+    /**
+     * Spark buffers the whole body of a request in memory when it is first read, so uploads read it from
+     * the underlying servlet request instead.
+     */
+    private static InputStream bodyStream(ServletRequest request) throws IOException {
+        ServletRequest unwrapped = request instanceof ServletRequestWrapper
+                ? ((ServletRequestWrapper) request).getRequest()
+                : request;
+        return unwrapped.getInputStream();
+    }
+
+    private static int intArgument(Map<String, String> arguments, String name, int defaultValue) {
+        return arguments.containsKey(name) ? Integer.parseInt(arguments.get(name)) : defaultValue;
+    }
+
+    private static int parsePageSize(String size) {
+        if (size == null || size.isEmpty()) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        try {
+            return Integer.parseInt(size);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page size '" + size + "'.", e);
+        }
+    }
+
+    private static IndexSettings createSettings(Map<String, String> arguments) {
+        IndexSettings settings = new IndexSettings();
+        if (arguments.containsKey("refreshIntervalMillis")) {
+            settings.setRefreshIntervalMillis(Long.parseLong(arguments.get("refreshIntervalMillis")));
+        }
+        if (arguments.containsKey("commitMaxDocuments")) {
+            settings.setCommitMaxDocuments(Integer.parseInt(arguments.get("commitMaxDocuments")));
+        }
+        if (arguments.containsKey("commitIntervalMillis")) {
+            settings.setCommitIntervalMillis(Long.parseLong(arguments.get("commitIntervalMillis")));
+        }
+        if (arguments.containsKey("ramBufferSizeMB")) {
+            settings.setRamBufferSizeMB(Double.parseDouble(arguments.get("ramBufferSizeMB")));
+        }
+        if (arguments.containsKey("indexProfile")) {
+            settings.setIndexProfile(IndexProfile.parse(arguments.get("indexProfile")));
+        }
+        if (arguments.containsKey("parseThreads")) {
+            settings.setParseThreads(Integer.parseInt(arguments.get("parseThreads")));
+        }
+        if (arguments.containsKey("indexThreads")) {
+            settings.setIndexThreads(Integer.parseInt(arguments.get("indexThreads")));
+        }
+        if (arguments.containsKey("indexingQueueCapacity")) {
+            settings.setIndexingQueueCapacity(Integer.parseInt(arguments.get("indexingQueueCapacity")));
+        }
+        if (arguments.containsKey("progressIntervalMillis")) {
+            settings.setProgressIntervalMillis(Long.parseLong(arguments.get("progressIntervalMillis")));
+        }
+        if (arguments.containsKey("watchDebounceMillis")) {
+            settings.setWatchDebounceMillis(Long.parseLong(arguments.get("watchDebounceMillis")));
+        }
+        if (arguments.containsKey("queryCacheMaxEntries")) {
+            settings.setQueryCacheMaxEntries(Integer.parseInt(arguments.get("queryCacheMaxEntries")));
+        }
+        if (arguments.containsKey("queryCacheMaxSizeMB")) {
+            settings.setQueryCacheMaxSizeMB(Double.parseDouble(arguments.get("queryCacheMaxSizeMB")));
+        }
+        if (arguments.containsKey("queryCacheTtlMillis")) {
+            settings.setQueryCacheTtlMillis(Long.parseLong(arguments.get("queryCacheTtlMillis")));
+        }
+        if (arguments.containsKey("highlighter")) {
+            settings.setHighlighterType(HighlighterType.parse(arguments.get("highlighter")));
+        }
+        if (arguments.containsKey("snippetSize")) {
+            settings.setSnippetSize(Integer.parseInt(arguments.get("snippetSize")));
+        }
+        if (arguments.containsKey("highlightBudgetMillis")) {
+            settings.setHighlightBudgetMillis(Long.parseLong(arguments.get("highlightBudgetMillis")));
+        }
+        if (arguments.containsKey("displayFieldsFromDocValues")) {
+            settings.setDisplayFieldsFromDocValues(Boolean.parseBoolean(arguments.get("displayFieldsFromDocValues")));
+        }
+        if (arguments.containsKey("slowQueryThresholdMillis")) {
+            settings.setSlowQueryThresholdMillis(Long.parseLong(arguments.get("slowQueryThresholdMillis")));
+        }
+        if (arguments.containsKey("slowQueryLogPath")) {
+            settings.setSlowQueryLogPath(Paths.get(arguments.get("slowQueryLogPath")));
+        }
+        if (arguments.containsKey("slowQueryLogMaxSizeMB")) {
+            settings.setSlowQueryLogMaxSizeMB(Double.parseDouble(arguments.get("slowQueryLogMaxSizeMB")));
+        }
+        if (arguments.containsKey("slowQueryLogMaxFiles")) {
+            settings.setSlowQueryLogMaxFiles(Integer.parseInt(arguments.get("slowQueryLogMaxFiles")));
+        }
+        if (arguments.containsKey("directory")) {
+            settings.setDirectoryType(DirectoryType.parse(arguments.get("directory")));
+        }
+        if (arguments.containsKey("mmapMaxChunkSizeMB")) {
+            settings.setMmapMaxChunkSizeMB(Integer.parseInt(arguments.get("mmapMaxChunkSizeMB")));
+        }
+        if (arguments.containsKey("mmapPreload")) {
+            settings.setMmapPreload(Boolean.parseBoolean(arguments.get("mmapPreload")));
+        }
+        if (arguments.containsKey("nrtCaching")) {
+            settings.setNrtCaching(Boolean.parseBoolean(arguments.get("nrtCaching")));
+        }
+        if (arguments.containsKey("nrtCachingMaxMergeSizeMB")) {
+            settings.setNrtCachingMaxMergeSizeMB(Double.parseDouble(arguments.get("nrtCachingMaxMergeSizeMB")));
+        }
+        if (arguments.containsKey("nrtCachingMaxCachedMB")) {
+            settings.setNrtCachingMaxCachedMB(Double.parseDouble(arguments.get("nrtCachingMaxCachedMB")));
+        }
+        if (arguments.containsKey("shardCount")) {
+            settings.setShardCount(Integer.parseInt(arguments.get("shardCount")));
+        }
+        if (arguments.containsKey("searchThreads")) {
+            settings.setSearchThreads(Integer.parseInt(arguments.get("searchThreads")));
+        }
+        if (arguments.containsKey("segmentSearchThreads")) {
+            settings.setSegmentSearchThreads(Integer.parseInt(arguments.get("segmentSearchThreads")));
+        }
+        if (arguments.containsKey("maxMergedSegmentMB")) {
+            settings.setMaxMergedSegmentMB(Double.parseDouble(arguments.get("maxMergedSegmentMB")));
+        }
+        if (arguments.containsKey("segmentsPerTier")) {
+            settings.setSegmentsPerTier(Double.parseDouble(arguments.get("segmentsPerTier")));
+        }
+        if (arguments.containsKey("floorSegmentMB")) {
+            settings.setFloorSegmentMB(Double.parseDouble(arguments.get("floorSegmentMB")));
+        }
+        if (arguments.containsKey("maxMergeThreads")) {
+            settings.setMaxMergeThreads(Integer.parseInt(arguments.get("maxMergeThreads")));
+        }
+        if (arguments.containsKey("forceMergeMaxSegments")) {
+            settings.setForceMergeMaxSegments(Integer.parseInt(arguments.get("forceMergeMaxSegments")));
+        }
+        if (arguments.containsKey("uploadSpoolPath")) {
+            settings.setUploadSpoolPath(Paths.get(arguments.get("uploadSpoolPath")));
+        }
+        if (arguments.containsKey("uploadMaxSizeMB")) {
+            settings.setUploadMaxSizeMB(Double.parseDouble(arguments.get("uploadMaxSizeMB")));
+        }
+        if (arguments.containsKey("uploadMaxQueuedJobs")) {
+            settings.setUploadMaxQueuedJobs(Integer.parseInt(arguments.get("uploadMaxQueuedJobs")));
+        }
+        if (arguments.containsKey("uploadBatchSize")) {
+            settings.setUploadBatchSize(Integer.parseInt(arguments.get("uploadBatchSize")));
+        }
+        if (arguments.containsKey("backupPath")) {
+            settings.setBackupPath(Paths.get(arguments.get("backupPath")));
+        }
+        return settings;
+    }
+
+    private static void closeQuietly(Closeable... closeables) {
+        for (Closeable closeable : closeables) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                e.printStackTrace(System.err);
             }
         }
-        return true;
     }
 }
@@ -0,0 +1,111 @@
+package com.demo.web;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where the disk space of the index goes, for comparing index profiles. Lucene writes each part of the
+ * index (stored fields, term vectors, postings, ...) to its own files, so the bytes are reported per part;
+ * the per-field numbers are the term statistics of each field, which show how much each field contributes
+ * to the postings.
+ */
+public final class IndexSizeReport implements Jsonable {
+
+    // -------------------- Private Variables --------------------
+
+    private final String profile;
+    private final int segmentCount;
+    private final Map<String, Long> bytesByPart = new LinkedHashMap<>();
+    private final List<FieldSize> fields = new ArrayList<>();
+
+    // -------------------- Constructors --------------------
+
+    public IndexSizeReport(String profile, int segmentCount) {
+        this.profile = profile;
+        this.segmentCount = segmentCount;
+    }
+
+    // -------------------- Public Methods --------------------
+
+    public final void addBytes(String part, long bytes) {
+        bytesByPart.merge(part, bytes, Long::sum);
+    }
+
+    public final void addField(FieldSize field) {
+        fields.add(field);
+    }
+
+    public final long getTotalBytes() {
+        return bytesByPart.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    public final Map<String, Long> getBytesByPart() {
+        return Collections.unmodifiableMap(bytesByPart);
+    }
+
+    // -------------------- Overridden Methods --------------------
+
+    @Override
+    public final JsonElement toJson() {
+        JsonObject object = new JsonObject();
+        object.addProperty("profile", profile);
+        object.addProperty("segment_count", segmentCount);
+        object.addProperty("total_bytes", getTotalBytes());
+
+        JsonObject parts = new JsonObject();
+        bytesByPart.forEach(parts::addProperty);
+        object.add("bytes_by_part", parts);
+
+        JsonObject fieldsObject = new JsonObject();
+        fields.forEach(field -> fieldsObject.add(field.name, field.toJson()));
+        object.add("fields", fieldsObject);
+        return object;
+    }
+
+    // -------------------- Inner Classes --------------------
+
+    public static final class FieldSize implements Jsonable {
+        private final String name;
+        private final String indexOptions;
+        private final boolean termVectors;
+        private final String docValues;
+        private long terms;
+        private long sumDocFreq;
+        private long sumTotalTermFreq;
+
+        public FieldSize(String name, String indexOptions, boolean termVectors, String docValues) {
+            this.name = name;
+            this.indexOptions = indexOptions;
+            this.termVectors = termVectors;
+            this.docValues = docValues;
+        }
+
+        /**
+         * Adds the term statistics of one segment. Terms shared by several segments are counted once per
+         * segment, just like they are stored.
+         */
+        public final void addTerms(long terms, long sumDocFreq, long sumTotalTermFreq) {
+            this.terms += Math.max(0L, terms);
+            this.sumDocFreq += Math.max(0L, sumDocFreq);
+            this.sumTotalTermFreq += Math.max(0L, sumTotalTermFreq);
+        }
+
+        @Override
+        public final JsonElement toJson() {
+            JsonObject object = new JsonObject();
+            object.addProperty("index_options", indexOptions);
+            object.addProperty("term_vectors", termVectors);
+            object.addProperty("doc_values", docValues);
+            object.addProperty("terms", terms);
+            object.addProperty("sum_doc_freq", sumDocFreq);
+            object.addProperty("sum_total_term_freq", sumTotalTermFreq);
+            return object;
+        }
+    }
+}
@@ -19,15 +19,19 @@ public class IndexStats implements Jsonable {
     private final int documentCount;
     private final Date lastUpdateDate;
     private final Date creationDate;
+    private final long ingestionLagMillis;
+    private final int pendingBookChanges;
 
     private final SimpleDateFormat formatter = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss z");
 
     // -------------------- Constructors --------------------
 
-    public IndexStats(int documentCount, long lastUpdateDate, long creationDate) {
+    public IndexStats(int documentCount, long lastUpdateDate, long creationDate, long ingestionLagMillis, int pendingBookChanges) {
         this.documentCount = documentCount;
         this.lastUpdateDate = new Date(lastUpdateDate);
         this.creationDate = new Date(creationDate);
+        this.ingestionLagMillis = ingestionLagMillis;
+        this.pendingBookChanges = pendingBookChanges;
     }
 
     // -------------------- Overridden Methods --------------------
@@ -38,6 +42,8 @@ public class IndexStats implements Jsonable {
         object.addProperty("document_count", documentCount);
         object.addProperty("creation_date", formatter.format(creationDate));
         object.addProperty("last_update_date", formatter.format(lastUpdateDate));
+        object.addProperty("ingestion_lag_ms", ingestionLagMillis);
+        object.addProperty("pending_book_changes", pendingBookChanges);
         return object;
     }
 }
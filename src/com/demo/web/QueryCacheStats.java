@@ -0,0 +1,41 @@
+package com.demo.web;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Counters of the search result cache, for sizing it against real traffic.
+ */
+public final class QueryCacheStats implements Jsonable {
+
+    // -------------------- Private Variables --------------------
+
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final int entryCount;
+    private final long sizeInBytes;
+
+    // -------------------- Constructors --------------------
+
+    public QueryCacheStats(long hits, long misses, long evictions, int entryCount, long sizeInBytes) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.entryCount = entryCount;
+        this.sizeInBytes = sizeInBytes;
+    }
+
+    // -------------------- Overridden Methods --------------------
+
+    @Override
+    public final JsonElement toJson() {
+        JsonObject object = new JsonObject();
+        object.addProperty("hits", hits);
+        object.addProperty("misses", misses);
+        object.addProperty("evictions", evictions);
+        object.addProperty("entry_count", entryCount);
+        object.addProperty("size_in_bytes", sizeInBytes);
+        return object;
+    }
+}
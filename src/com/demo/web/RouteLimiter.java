@@ -0,0 +1,101 @@
+package com.demo.web;
+
+import com.demo.lucene.Metrics;
+import spark.Route;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits how many requests a group of routes handles at once. A request over the limit waits for a slot,
+ * but only while few enough requests are waiting and for a bounded time; otherwise it is turned away with
+ * a {@link RejectedExecutionException}, which the server answers with a 503. Turning the excess away
+ * keeps the latency of the accepted requests steady during a spike, instead of every request slowing down
+ * together.
+ */
+final class RouteLimiter {
+
+    // -------------------- Private Variables --------------------
+
+    private final String group;
+    private final Semaphore slots;
+    private final int maxQueued;
+    private final long maxWaitMillis;
+    private final Metrics metrics;
+    private final AtomicInteger queued = new AtomicInteger(0);
+
+    // -------------------- Constructors --------------------
+
+    /**
+     * @param group the name of the route group, used in messages and metrics
+     * @param maxConcurrent how many requests may be handled at once
+     * @param maxQueued how many requests may wait for a slot, 0 to reject as soon as all slots are taken
+     * @param maxWaitMillis how long a request waits for a slot before it is rejected
+     */
+    RouteLimiter(String group, int maxConcurrent, int maxQueued, long maxWaitMillis, Metrics metrics) {
+        if (maxConcurrent <= 0) {
+            throw new IllegalArgumentException("The concurrency limit of " + group + " requests must be positive.");
+        }
+        if (maxQueued < 0 || maxWaitMillis < 0) {
+            throw new IllegalArgumentException("The queue of " + group + " requests must not be negative.");
+        }
+        this.group = group;
+        this.slots = new Semaphore(maxConcurrent, true);
+        this.maxQueued = maxQueued;
+        this.maxWaitMillis = maxWaitMillis;
+        this.metrics = metrics;
+    }
+
+    // -------------------- Default Methods --------------------
+
+    /**
+     * Wraps the route so it only runs while holding a slot.
+     */
+    final Route limit(Route route) {
+        return (request, response) -> {
+            acquire();
+            try {
+                return route.handle(request, response);
+            } finally {
+                release();
+            }
+        };
+    }
+
+    /**
+     * Takes a slot, waiting for one if all are taken. Every call that returns must be followed by a
+     * {@link #release()}.
+     *
+     * @throws RejectedExecutionException if too many requests are waiting, or no slot frees up in time
+     */
+    final void acquire() throws InterruptedException {
+        // a zero timeout, unlike tryAcquire(), doesn't jump ahead of the requests already waiting
+        if (slots.tryAcquire(0L, TimeUnit.MILLISECONDS)) {
+            return;
+        }
+        if (queued.incrementAndGet() > maxQueued) {
+            queued.decrementAndGet();
+            throw reject();
+        }
+        try {
+            if (!slots.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS)) {
+                throw reject();
+            }
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    final void release() {
+        slots.release();
+    }
+
+    // -------------------- Private Methods --------------------
+
+    private RejectedExecutionException reject() {
+        metrics.requestRejected(group);
+        return new RejectedExecutionException("The server is too busy to handle " + group + " requests, please try again later.");
+    }
+}
@@ -0,0 +1,51 @@
+package com.demo.web;
+
+import java.util.List;
+
+/**
+ * One page of search results, with the total number of matching books and the cursor of the next page.
+ */
+public final class SearchPage {
+
+    // -------------------- Private Variables --------------------
+
+    private final List<SearchResult> results;
+    private final int totalHits;
+    private final String nextCursor;
+    private final boolean partial;
+
+    // -------------------- Constructors --------------------
+
+    /**
+     * @param nextCursor the cursor to request the next page with, or null if this is the last page
+     * @param partial whether the search ran out of time, so hits or snippets may be missing
+     */
+    public SearchPage(List<SearchResult> results, int totalHits, String nextCursor, boolean partial) {
+        this.results = results;
+        this.totalHits = totalHits;
+        this.nextCursor = nextCursor;
+        this.partial = partial;
+    }
+
+    // -------------------- Public Methods --------------------
+
+    public final List<SearchResult> getResults() {
+        return results;
+    }
+
+    public final int getTotalHits() {
+        return totalHits;
+    }
+
+    public final String getNextCursor() {
+        return nextCursor;
+    }
+
+    public final boolean isPartial() {
+        return partial;
+    }
+
+    public final long estimatedSizeInBytes() {
+        return 64L + results.stream().mapToLong(SearchResult::estimatedSizeInBytes).sum();
+    }
+}
@@ -0,0 +1,97 @@
+package com.demo.web;
+
+import com.demo.lucene.SearchResultListener;
+import com.demo.lucene.SearchStage;
+import com.demo.lucene.SearchTrace;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams a search response to the client while the search runs. The total hit count and the next cursor
+ * are flushed as soon as the hits have been collected, and each result is written as soon as it has been
+ * highlighted, so no response is ever held in memory as a whole. Whether the search ran out of time and
+ * the elapsed time can only be known at the end, so they are the last properties of the object:
+ * <pre>
+ *     {"total_hits": 42, "next_cursor": "...", "results": [...], "partial": false, "elapsed_time": 12}
+ * </pre>
+ * A search that fails after the first write can no longer change the status of the response, so the
+ * failure is reported in the body instead, see {@link #abort()}.
+ */
+final class SearchResponseWriter implements SearchResultListener {
+
+    // -------------------- Private Variables --------------------
+
+    private final OutputStream out;
+    private final SearchTrace trace;
+    private JsonWriter writer;
+
+    // -------------------- Constructors --------------------
+
+    SearchResponseWriter(OutputStream out, SearchTrace trace) {
+        this.out = out;
+        this.trace = trace;
+    }
+
+    // -------------------- Default Methods --------------------
+
+    /**
+     * Closes the results and the response object, and flushes everything that is left.
+     */
+    final void finish() throws IOException {
+        long startTime = System.nanoTime();
+        writer.endArray();
+        writer.name("partial").value(trace.isPartial());
+        writer.name("elapsed_time").value(TimeUnit.NANOSECONDS.toMillis(trace.getElapsedNanos()));
+        writer.endObject();
+        writer.flush();
+        trace.addSince(SearchStage.SERIALIZE, startTime);
+    }
+
+    /**
+     * Ends the response of a search that failed after the header had been written: the results written so
+     * far are closed and followed by an {@code error} member, and the response is marked as partial, so
+     * the client still receives valid JSON. Returns false if nothing had been written yet, in which case
+     * the failure can still be answered with an error status.
+     */
+    final boolean abort() throws IOException {
+        if (writer == null) {
+            return false;
+        }
+        writer.endArray();
+        writer.name("partial").value(true);
+        writer.name("error").value("The search failed before all results could be written.");
+        writer.name("elapsed_time").value(TimeUnit.NANOSECONDS.toMillis(trace.getElapsedNanos()));
+        writer.endObject();
+        writer.flush();
+        return true;
+    }
+
+    // -------------------- Overridden Methods --------------------
+
+    @Override
+    public final void onPage(int totalHits, String nextCursor) throws IOException {
+        long startTime = System.nanoTime();
+        writer = new JsonWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+        writer.beginObject();
+        writer.name("total_hits").value(totalHits);
+        if (nextCursor != null) {
+            writer.name("next_cursor").value(nextCursor);
+        }
+        writer.name("results").beginArray();
+        writer.flush();
+        trace.addSince(SearchStage.SERIALIZE, startTime);
+    }
+
+    @Override
+    public final void onResult(SearchResult result) throws IOException {
+        long startTime = System.nanoTime();
+        result.writeTo(writer);
+        trace.addSince(SearchStage.SERIALIZE, startTime);
+    }
+}
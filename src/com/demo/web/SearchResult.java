@@ -2,6 +2,10 @@ package com.demo.web;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.Objects;
 
 /**
  * @author Scott Faria <scott.faria@gmail.com>
@@ -21,14 +25,47 @@ public final class SearchResult implements Jsonable {
         this.contextMatch = contextMatch;
     }
 
+    // -------------------- Public Methods --------------------
+
+    /**
+     * A rough estimate of the heap used by this result, for bounding caches of results.
+     */
+    public final long estimatedSizeInBytes() {
+        return 64L + 2L * (length(author) + length(title) + length(contextMatch));
+    }
+
+    /**
+     * Writes the same object as {@link #toJson()} straight to the writer, without building a tree.
+     */
+    public final void writeTo(JsonWriter writer) throws IOException {
+        writer.beginObject();
+        if (author != null) {
+            writer.name("author").value(author);
+        }
+        if (title != null) {
+            writer.name("title").value(title);
+        }
+        if (contextMatch != null) {
+            writer.name("context").value(contextMatch);
+        }
+        writer.endObject();
+    }
+
     // -------------------- Overridden Methods --------------------
 
     @Override
     public final JsonElement toJson() {
         JsonObject matchesObject = new JsonObject();
-        matchesObject.addProperty("author", author);
-        matchesObject.addProperty("title", title);
-        matchesObject.addProperty("context", contextMatch);
+        // fields that weren't requested are left out
+        if (author != null) {
+            matchesObject.addProperty("author", author);
+        }
+        if (title != null) {
+            matchesObject.addProperty("title", title);
+        }
+        if (contextMatch != null) {
+            matchesObject.addProperty("context", contextMatch);
+        }
         return matchesObject;
     }
 
@@ -37,15 +74,21 @@ public final class SearchResult implements Jsonable {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         SearchResult that = (SearchResult) o;
-        if (!author.equals(that.author)) return false;
-        return title.equals(that.title);
+        if (!Objects.equals(author, that.author)) return false;
+        return Objects.equals(title, that.title);
 
     }
 
     @Override
     public int hashCode() {
-        int result = author.hashCode();
-        result = 31 * result + title.hashCode();
+        int result = Objects.hashCode(author);
+        result = 31 * result + Objects.hashCode(title);
         return result;
     }
+
+    // -------------------- Private Static Methods --------------------
+
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
 }
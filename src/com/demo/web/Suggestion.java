@@ -0,0 +1,48 @@
+package com.demo.web;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * A book whose title or author matches what the user has typed so far.
+ */
+public final class Suggestion implements Jsonable {
+
+    // -------------------- Private Variables --------------------
+
+    private final String author;
+    private final String title;
+
+    // -------------------- Constructors --------------------
+
+    public Suggestion(String author, String title) {
+        this.author = author;
+        this.title = title;
+    }
+
+    // -------------------- Overridden Methods --------------------
+
+    @Override
+    public final JsonElement toJson() {
+        JsonObject object = new JsonObject();
+        object.addProperty("author", author);
+        object.addProperty("title", title);
+        return object;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Suggestion that = (Suggestion) o;
+        if (!author.equals(that.author)) return false;
+        return title.equals(that.title);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = author.hashCode();
+        result = 31 * result + title.hashCode();
+        return result;
+    }
+}
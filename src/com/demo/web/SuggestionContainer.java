@@ -7,20 +7,20 @@ import com.google.gson.JsonObject;
 import java.util.Collection;
 
 /**
- * @author Scott Faria <scott.faria@gmail.com>
+ * The response of the {@code /suggest} route.
  */
-final class SearchResultContainer implements Jsonable {
+final class SuggestionContainer implements Jsonable {
 
     // -------------------- Private Variables --------------------
 
     private final long elapsedTime;
-    private final Collection<SearchResult> results;
+    private final Collection<Suggestion> suggestions;
 
     // -------------------- Constructor --------------------
 
-    SearchResultContainer(long elapsedTime, Collection<SearchResult> results) {
+    SuggestionContainer(long elapsedTime, Collection<Suggestion> suggestions) {
         this.elapsedTime = elapsedTime;
-        this.results = results;
+        this.suggestions = suggestions;
     }
 
     // -------------------- Overridden Methods --------------------
@@ -29,9 +29,9 @@ final class SearchResultContainer implements Jsonable {
     public final JsonElement toJson() {
         JsonObject containerJson = new JsonObject();
         containerJson.addProperty("elapsed_time", elapsedTime);
-        JsonArray docArray = new JsonArray();
-        containerJson.add("results", docArray);
-        results.forEach(result -> docArray.add(result.toJson()));
+        JsonArray suggestionArray = new JsonArray();
+        containerJson.add("suggestions", suggestionArray);
+        suggestions.forEach(suggestion -> suggestionArray.add(suggestion.toJson()));
         return containerJson;
     }
 
@@ -0,0 +1,48 @@
+package com.demo.web;
+
+import com.demo.lucene.UploadState;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * The state of an uploaded book, see {@link com.demo.lucene.UploadQueue}.
+ */
+public final class UploadStatus implements Jsonable {
+
+    // -------------------- Private Variables --------------------
+
+    private final String jobId;
+    private final UploadState state;
+    private final String error;
+
+    // -------------------- Constructors --------------------
+
+    public UploadStatus(String jobId, UploadState state, String error) {
+        this.jobId = jobId;
+        this.state = state;
+        this.error = error;
+    }
+
+    // -------------------- Public Methods --------------------
+
+    public final String getJobId() {
+        return jobId;
+    }
+
+    public final UploadState getState() {
+        return state;
+    }
+
+    // -------------------- Overridden Methods --------------------
+
+    @Override
+    public final JsonElement toJson() {
+        JsonObject object = new JsonObject();
+        object.addProperty("job_id", jobId);
+        object.addProperty("state", state.name());
+        if (error != null) {
+            object.addProperty("error", error);
+        }
+        return object;
+    }
+}